@@ -7,7 +7,9 @@
  */
 package org.opendaylight.p4plugin.appcommon;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.opendaylight.p4plugin.appcommon.swtich.P4Switch;
 import org.opendaylight.p4plugin.appcommon.swtich.P4SwitchBuilder;
 import org.opendaylight.p4plugin.appcommon.topo.Topo;
@@ -26,6 +28,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 
 public abstract class ApplicationRunner {
     private static final Logger LOG = LoggerFactory.getLogger(ApplicationRunner.class);
@@ -84,6 +88,80 @@ public abstract class ApplicationRunner {
         return result;
     }
 
+    /**
+     * Bring up all switches of the topology, at most parallelism at a time.
+     * Each switch goes through add, open stream channel and set pipeline
+     * config on its own, without holding a thread while waiting, and a
+     * failure only stops that switch. Returns one result per switch, in
+     * topology order, once all of them are done.
+     */
+    public Map<String, OnboardingResult> loadTopoConcurrently(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive.");
+        }
+
+        long start = System.nanoTime();
+        Semaphore permits = new Semaphore(parallelism);
+        Map<String, ListenableFuture<OnboardingResult>> futures = new LinkedHashMap<>();
+        for (P4Switch p4Switch : p4SwitchMap.values()) {
+            permits.acquireUninterruptibly();
+            ListenableFuture<OnboardingResult> future = onboard(p4Switch);
+            future.addListener(permits::release, MoreExecutors.directExecutor());
+            futures.put(p4Switch.getNodeId(), future);
+        }
+
+        Map<String, OnboardingResult> results = new LinkedHashMap<>();
+        futures.forEach((nodeId, future) -> results.put(nodeId, Futures.getUnchecked(future)));
+        long failed = results.values().stream().filter(result -> !result.isSuccess()).count();
+        LOG.info("Load topo done, switches = {}, failed = {}, parallelism = {}, time = {}ms.",
+                results.size(), failed, parallelism, (System.nanoTime() - start) / 1000000);
+        results.values().forEach(result -> LOG.info("Onboarding {}.", result));
+        return results;
+    }
+
+    private ListenableFuture<OnboardingResult> onboard(P4Switch p4Switch) {
+        long start = System.nanoTime();
+        OnboardingResult result = new OnboardingResult(p4Switch.getNodeId());
+        ListenableFuture<Boolean> chain = Futures.immediateFuture(true);
+        chain = runStep(chain, result, OnboardingResult.Step.ADD_DEVICE, () -> addNodeAsync(p4Switch));
+        chain = runStep(chain, result, OnboardingResult.Step.OPEN_STREAM_CHANNEL, p4Switch::openStreamChannelAsync);
+        chain = runStep(chain, result, OnboardingResult.Step.SET_PIPELINE_CONFIG, p4Switch::setPipelineConfigAsync);
+        return Futures.transform(chain, success -> {
+            result.setTotalNanos(System.nanoTime() - start);
+            return result;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Run the step once the previous one has succeeded. The returned future
+     * never fails, it completes with false if this step or an earlier one
+     * did not succeed.
+     */
+    private ListenableFuture<Boolean> runStep(ListenableFuture<Boolean> previous, OnboardingResult result,
+                                              OnboardingResult.Step step, Supplier<ListenableFuture<Boolean>> action) {
+        return Futures.transformAsync(previous, succeeded -> {
+            if (!succeeded) {
+                return Futures.immediateFuture(false);
+            }
+
+            long start = System.nanoTime();
+            ListenableFuture<Boolean> done;
+            try {
+                done = action.get();
+            } catch (RuntimeException e) {
+                done = Futures.immediateFailedFuture(e);
+            }
+            done = Futures.catching(done, Exception.class, e -> {
+                result.setMessage(e.getMessage());
+                return false;
+            }, MoreExecutors.directExecutor());
+            return Futures.transform(done, success -> {
+                result.recordStep(step, System.nanoTime() - start, success);
+                return success;
+            }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor());
+    }
+
     public void removeTopo() {
         for(Map.Entry<String, P4Switch> entry : p4SwitchMap.entrySet()) {
             removeNode(entry.getValue());
@@ -91,18 +169,11 @@ public abstract class ApplicationRunner {
     }
 
     private boolean addNode(P4Switch p4Switch) {
-        AddDeviceInputBuilder inputBuilder = new AddDeviceInputBuilder();
-        inputBuilder.setNid(p4Switch.getNodeId());
-        inputBuilder.setDid(new BigInteger(p4Switch.getDeviceId().toString()));
-        inputBuilder.setIp(new Ipv4Address(p4Switch.getgRPCServerIp()));
-        inputBuilder.setPort(new PortNumber(p4Switch.getgRPCServerPort()));
-        inputBuilder.setPipelineFile(p4Switch.getConfigFile());
-        inputBuilder.setRuntimeFile(p4Switch.getRuntimeFile());
         String nodeId = p4Switch.getNodeId();
         boolean result;
 
         try {
-            ListenableFuture<RpcResult<AddDeviceOutput>> output = deviceService.addDevice(inputBuilder.build());
+            ListenableFuture<RpcResult<AddDeviceOutput>> output = deviceService.addDevice(buildAddDeviceInput(p4Switch));
             result = output.get().isSuccessful();
             LOG.info("Add switch {} {}.", nodeId, result ? "success" : "failed");
         } catch (InterruptedException | ExecutionException e) {
@@ -112,6 +183,22 @@ public abstract class ApplicationRunner {
         return result;
     }
 
+    private ListenableFuture<Boolean> addNodeAsync(P4Switch p4Switch) {
+        return Futures.transform(deviceService.addDevice(buildAddDeviceInput(p4Switch)),
+                RpcResult::isSuccessful, MoreExecutors.directExecutor());
+    }
+
+    private AddDeviceInput buildAddDeviceInput(P4Switch p4Switch) {
+        AddDeviceInputBuilder inputBuilder = new AddDeviceInputBuilder();
+        inputBuilder.setNid(p4Switch.getNodeId());
+        inputBuilder.setDid(new BigInteger(p4Switch.getDeviceId().toString()));
+        inputBuilder.setIp(new Ipv4Address(p4Switch.getgRPCServerIp()));
+        inputBuilder.setPort(new PortNumber(p4Switch.getgRPCServerPort()));
+        inputBuilder.setPipelineFile(p4Switch.getConfigFile());
+        inputBuilder.setRuntimeFile(p4Switch.getRuntimeFile());
+        return inputBuilder.build();
+    }
+
     public void removeNode(P4Switch p4Switch) {
         RemoveDeviceInputBuilder inputBuilder = new RemoveDeviceInputBuilder();
         String nodeId = p4Switch.getNodeId();
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.appcommon;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of bringing up one switch: how long each step took, and the step
+ * that failed, if any. Steps after a failed one are not run.
+ */
+public final class OnboardingResult {
+    private final String nodeId;
+    private final Map<Step, Long> stepNanos = new EnumMap<>(Step.class);
+    private Step failedStep;
+    private String message;
+    private long totalNanos;
+
+    OnboardingResult(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    void recordStep(Step step, long nanos, boolean success) {
+        stepNanos.put(step, nanos);
+        if (!success) {
+            failedStep = step;
+        }
+    }
+
+    void setMessage(String message) {
+        this.message = message;
+    }
+
+    void setTotalNanos(long totalNanos) {
+        this.totalNanos = totalNanos;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public boolean isSuccess() {
+        return failedStep == null;
+    }
+
+    /**
+     * Null on success.
+     */
+    public Step getFailedStep() {
+        return failedStep;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Duration of a step in milliseconds, -1 if it was not run.
+     */
+    public long getStepMillis(Step step) {
+        Long nanos = stepNanos.get(step);
+        return nanos == null ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s, add = %dms, open = %dms, pipeline = %dms, total = %dms%s", nodeId,
+                isSuccess() ? "success" : "failed at " + failedStep,
+                getStepMillis(Step.ADD_DEVICE), getStepMillis(Step.OPEN_STREAM_CHANNEL),
+                getStepMillis(Step.SET_PIPELINE_CONFIG), getTotalMillis(),
+                message == null ? "" : ", message = " + message);
+    }
+
+    public enum Step {
+        ADD_DEVICE,
+        OPEN_STREAM_CHANNEL,
+        SET_PIPELINE_CONFIG
+    }
+}
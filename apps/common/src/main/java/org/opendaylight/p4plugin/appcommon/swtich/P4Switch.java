@@ -7,7 +7,9 @@
  */
 package org.opendaylight.p4plugin.appcommon.swtich;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.*;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.packet.metadata.Metadata;
 import org.opendaylight.yangtools.yang.common.RpcResult;
@@ -26,7 +28,7 @@ public class P4Switch {
     protected final String configFile;
     protected final String runtimeFile;
     protected final P4pluginP4runtimeService runtimeService;
-    private Status status = Status.INITIALIZE;
+    private volatile Status status = Status.INITIALIZE;
 
     protected P4Switch(String gRPCServerIp, Integer gRPCServerPort,
                        Long deviceId, String nodeId,
@@ -57,6 +59,20 @@ public class P4Switch {
         status = result ? Status.OPEN_STREAM_CHANNEL : Status.ERROR;
     }
 
+    /**
+     * Non-blocking variant, the future completes with whether it succeeded.
+     */
+    public ListenableFuture<Boolean> openStreamChannelAsync() {
+        OpenStreamChannelInputBuilder inputBuilder = new OpenStreamChannelInputBuilder();
+        inputBuilder.setNid(nodeId);
+        return Futures.transform(runtimeService.openStreamChannel(inputBuilder.build()), output -> {
+            boolean result = output.isSuccessful();
+            LOG.info("Open stream channel {}.", result ? "success" : "failed");
+            status = result ? Status.OPEN_STREAM_CHANNEL : Status.ERROR;
+            return result;
+        }, MoreExecutors.directExecutor());
+    }
+
     public void setPipelineConfig() {
         if (status != Status.OPEN_STREAM_CHANNEL) return;
         SetPipelineConfigInputBuilder inputBuilder = new SetPipelineConfigInputBuilder();
@@ -74,6 +90,23 @@ public class P4Switch {
         status = result ? Status.SET_PIPELINE : Status.ERROR;
     }
 
+    /**
+     * Non-blocking variant, the future completes with whether it succeeded.
+     */
+    public ListenableFuture<Boolean> setPipelineConfigAsync() {
+        if (status != Status.OPEN_STREAM_CHANNEL) {
+            return Futures.immediateFuture(false);
+        }
+        SetPipelineConfigInputBuilder inputBuilder = new SetPipelineConfigInputBuilder();
+        inputBuilder.setNid(nodeId);
+        return Futures.transform(runtimeService.setPipelineConfig(inputBuilder.build()), output -> {
+            boolean result = output.isSuccessful();
+            LOG.info("Set pipeline config {}.", result ? "success" : "failed");
+            status = result ? Status.SET_PIPELINE : Status.ERROR;
+            return result;
+        }, MoreExecutors.directExecutor());
+    }
+
     public void addTableEntry(AddTableEntryInput entry) {
         if (status != Status.SET_PIPELINE) return;
         try {
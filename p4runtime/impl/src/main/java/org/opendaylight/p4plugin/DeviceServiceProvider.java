@@ -8,8 +8,6 @@
 package org.opendaylight.p4plugin;
 
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
 import org.opendaylight.mdsal.binding.api.DataBroker;
 import org.opendaylight.p4plugin.device.DeviceManager;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.device.rev170808.*;
@@ -19,26 +17,36 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
 
 public class DeviceServiceProvider implements P4pluginDeviceService {
     private static final Logger LOG = LoggerFactory.getLogger(DeviceServiceProvider.class);
     private final DataBroker dataBroker;
+    private final ShardedExecutor executor;
+    private final boolean writeCoalescing;
+    private final long writeLingerMillis;
+    private final int writeMaxBatchSize;
     private DeviceManager deviceManager;
-    private ListeningExecutorService executorService;
 
-    public DeviceServiceProvider(final DataBroker dataBroker) {
+    public DeviceServiceProvider(final DataBroker dataBroker,
+                                 final ShardedExecutor executor,
+                                 final boolean writeCoalescing,
+                                 final long writeLingerMillis,
+                                 final int writeMaxBatchSize) {
         this.dataBroker = dataBroker;
+        this.executor = executor;
+        this.writeCoalescing = writeCoalescing;
+        this.writeLingerMillis = writeLingerMillis;
+        this.writeMaxBatchSize = writeMaxBatchSize;
     }
 
     public void init() {
-        executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(1));
         deviceManager = DeviceManager.getInstance();
+        deviceManager.setWriteCoalescing(writeCoalescing, writeLingerMillis, writeMaxBatchSize);
         LOG.info("P4 plugin device service provider initiated.");
     }
 
     public void close() {
-        executorService.shutdown();
+        deviceManager.close();
         LOG.info("P4 plugin device service provider closed.");
     }
 
@@ -82,16 +90,16 @@ public class DeviceServiceProvider implements P4pluginDeviceService {
 
     @Override
     public ListenableFuture<RpcResult<AddDeviceOutput>> addDevice(AddDeviceInput input) {
-        return executorService.submit(addDev(input));
+        return executor.submit(input.getNid(), addDev(input));
     }
 
     @Override
     public ListenableFuture<RpcResult<QueryDevicesOutput>> queryDevices(QueryDevicesInput input) {
-        return executorService.submit(queryDev());
+        return executor.submit(null, queryDev());
     }
 
     @Override
     public ListenableFuture<RpcResult<RemoveDeviceOutput>> removeDevice(RemoveDeviceInput input) {
-        return executorService.submit(removeDev(input));
+        return executor.submit(input.getNid(), removeDev(input));
     }
 }
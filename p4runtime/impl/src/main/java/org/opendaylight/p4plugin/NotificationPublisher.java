@@ -7,14 +7,19 @@
  */
 package org.opendaylight.p4plugin;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import org.opendaylight.mdsal.binding.api.NotificationPublishService;
 import org.opendaylight.yangtools.yang.binding.Notification;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public final class NotificationPublisher {
     private static NotificationPublisher singleton = new NotificationPublisher();
     private NotificationPublishService notificationService;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
     private static final Logger LOG = LoggerFactory.getLogger(NotificationPublisher.class);
 
     private NotificationPublisher() {}
@@ -29,8 +34,25 @@ public final class NotificationPublisher {
 
     public <T extends Notification> void notify(T notification) {
         if (null != notificationService) {
-            LOG.info("Notification publish!");
-            notificationService.offerNotification(notification);
+            ListenableFuture<?> offered = notificationService.offerNotification(notification);
+            if (offered == NotificationPublishService.REJECTED) {
+                long count = rejected.incrementAndGet();
+                LOG.debug("Notification rejected, rejected = {}.", count);
+            } else {
+                published.incrementAndGet();
+                LOG.debug("Notification publish!");
+            }
         }
     }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * Notifications the broker had no room for.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
 }
\ No newline at end of file
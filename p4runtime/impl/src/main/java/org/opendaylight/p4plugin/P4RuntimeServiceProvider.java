@@ -7,8 +7,8 @@
  */
 package org.opendaylight.p4plugin;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.TextFormat;
@@ -16,39 +16,74 @@ import org.opendaylight.mdsal.binding.api.DataBroker;
 import org.opendaylight.mdsal.binding.api.NotificationPublishService;
 import org.opendaylight.p4plugin.device.Device;
 import org.opendaylight.p4plugin.device.DeviceManager;
+import org.opendaylight.p4plugin.device.ReconcileResult;
+import org.opendaylight.p4plugin.device.UpdateResult;
+import org.opendaylight.p4plugin.device.WriteQueue;
+import org.opendaylight.p4plugin.p4runtime.P4RuntimeClient;
+import org.opendaylight.p4plugin.p4runtime.PacketInPolicer;
+import org.opendaylight.p4plugin.p4runtime.PacketInPolicy;
+import org.opendaylight.p4plugin.p4runtime.StreamSender;
 import org.opendaylight.p4plugin.p4info.proto.P4Info;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.*;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.batch.write.input.Operation;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.batch.write.output.Result;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.batch.write.output.ResultBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.get.rpc.executor.statistics.output.Shard;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.get.rpc.executor.statistics.output.ShardBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.get.write.statistics.output.WriteQueueBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.get.write.statistics.output.WriteStripe;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.get.write.statistics.output.WriteStripeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.reconcile.table.entries.input.Entry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.reconcile.table.entries.output.Failure;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.reconcile.table.entries.output.FailureBuilder;
+import org.opendaylight.yangtools.yang.common.RpcError;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class P4RuntimeServiceProvider implements P4pluginP4runtimeService {
     private static final Logger LOG = LoggerFactory.getLogger(P4RuntimeServiceProvider.class);
+    private static final int DEFAULT_MAX_UPDATES_PER_REQUEST = 1000;
     private final DataBroker dataBroker;
     private final NotificationPublishService notificationPublishService;
+    private final ShardedExecutor executor;
     private DeviceManager deviceManager;
-    private ListeningExecutorService executorService;
+    private final ConcurrentHashMap<String, CallChain> callChains = new ConcurrentHashMap<>();
+    private final Consumer<String> removalListener = callChains::remove;
 
-    public P4RuntimeServiceProvider(final DataBroker dataBroker, final NotificationPublishService notificationPublishService) {
+    public P4RuntimeServiceProvider(final DataBroker dataBroker,
+                                    final NotificationPublishService notificationPublishService,
+                                    final ShardedExecutor executor) {
         this.dataBroker = dataBroker;
         this.notificationPublishService = notificationPublishService;
+        this.executor = executor;
     }
 
     public void init() {
         NotificationPublisher.getInstance().setNotificationService(notificationPublishService);
-        executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(1));
         deviceManager = DeviceManager.getInstance();
+        deviceManager.addRemovalListener(removalListener);
         LOG.info("P4 plugin runtime service provider initiated.");
     }
 
     public void close() {
-        executorService.shutdown();
+        deviceManager.removeRemovalListener(removalListener);
         LOG.info("P4 plugin runtime service provider closed.");
     }
 
@@ -56,50 +91,105 @@ public class P4RuntimeServiceProvider implements P4pluginP4runtimeService {
         return RpcResultBuilder.success(value).build();
     }
 
-    private Callable<RpcResult<AddTableEntryOutput>> addEntry(AddTableEntryInput input) {
-        return () -> {
-            String nodeId = input.getNid();
-            deviceManager.findDevice(nodeId)
-                    .orElseThrow(IllegalArgumentException::new)
-                    .addTableEntry(input);
+    /**
+     * Call the device of nodeId on its executor shard, after the calls it
+     * depends on, see CallChain. The call only encodes and sends the request,
+     * no thread waits for the response; the RPC completes when the device
+     * answers, or fails with the exception of the call.
+     */
+    private <T, R> ListenableFuture<RpcResult<T>> callDevice(String nodeId, CallType type,
+                                                             Function<Device, ListenableFuture<R>> call,
+                                                             Function<R, RpcResult<T>> onResponse) {
+        return callDevice(nodeId, type, null, call, onResponse);
+    }
+
+    /**
+     * @param keyOf the entry an ENTRY or QUEUED_ENTRY call touches.
+     */
+    private <T, R> ListenableFuture<RpcResult<T>> callDevice(String nodeId, CallType type,
+                                                             Function<Device, Object> keyOf,
+                                                             Function<Device, ListenableFuture<R>> call,
+                                                             Function<R, RpcResult<T>> onResponse) {
+        /* calls are chained on the shard thread of the device, so in RPC order */
+        ListenableFuture<ListenableFuture<R>> ordered = executor.submit(nodeId, () -> {
+            Device device = deviceManager.findDevice(nodeId).orElseThrow(IllegalArgumentException::new);
+            Object key = keyOf == null ? null : keyOf.apply(device);
+            CallChain chain = callChains.computeIfAbsent(nodeId, k -> new CallChain());
+            ListenableFuture<Object> previous = chain.previous(type, key);
+
+            ListenableFuture<ListenableFuture<R>> submitted;
+            if (previous.isDone()) {
+                try {
+                    submitted = Futures.immediateFuture(call.apply(device));
+                } catch (RuntimeException e) {
+                    submitted = Futures.immediateFailedFuture(e);
+                }
+            } else {
+                submitted = Futures.transformAsync(previous,
+                        v -> executor.submit(nodeId, () -> call.apply(device)), MoreExecutors.directExecutor());
+            }
+            ListenableFuture<R> future = Futures.transformAsync(submitted, sent -> sent,
+                    MoreExecutors.directExecutor());
+            chain.record(type, key, submitted, future);
+            return future;
+        });
+        ListenableFuture<R> future = Futures.transformAsync(ordered, sent -> sent, MoreExecutors.directExecutor());
+        return Futures.transform(future, onResponse::apply, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Completes when all the futures complete, whether they succeed or not.
+     */
+    private static ListenableFuture<Object> settled(ListenableFuture<?>... futures) {
+        return settled(Arrays.asList(futures));
+    }
+
+    private static ListenableFuture<Object> settled(Iterable<? extends ListenableFuture<?>> futures) {
+        return Futures.whenAllComplete(futures).call(() -> null, MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<RpcResult<AddTableEntryOutput>> addEntry(AddTableEntryInput input) {
+        String nodeId = input.getNid();
+        return callDevice(nodeId, CallType.ENTRY, device -> device.getEntryKey(input),
+                device -> device.addTableEntry(input), response -> {
             LOG.info("Add entry to device success, nodeId = {}", nodeId);
             return rpcResultSuccess(null);
-        };
+        });
     }
 
-    private Callable<RpcResult<ModifyTableEntryOutput>> modifyEntry(ModifyTableEntryInput input) {
-        return () -> {
-            String nodeId = input.getNid();
-            deviceManager.findDevice(nodeId)
-                    .orElseThrow(IllegalArgumentException::new)
-                    .modifyTableEntry(input);
+    private ListenableFuture<RpcResult<ModifyTableEntryOutput>> modifyEntry(ModifyTableEntryInput input) {
+        String nodeId = input.getNid();
+        return callDevice(nodeId, CallType.ENTRY, device -> device.getEntryKey(input),
+                device -> device.modifyTableEntry(input), response -> {
             LOG.info("Modify entry to device success, nodeId = {}.", nodeId);
             return rpcResultSuccess(null);
-        };
+        });
     }
 
-    private Callable<RpcResult<DeleteTableEntryOutput>> deleteEntry(DeleteTableEntryInput input) {
-        return () -> {
-            String nodeId = input.getNid();
-            deviceManager.findDevice(nodeId)
-                    .orElseThrow(IllegalArgumentException::new)
-                    .deleteTableEntry(input);
+    private ListenableFuture<RpcResult<DeleteTableEntryOutput>> deleteEntry(DeleteTableEntryInput input) {
+        String nodeId = input.getNid();
+        return callDevice(nodeId, CallType.ENTRY, device -> device.getEntryKey(input),
+                device -> device.deleteTableEntry(input), response -> {
             LOG.info("Delete entry from device success, nodeId = {}.", nodeId);
             return rpcResultSuccess(null);
-        };
+        });
     }
 
-    private Callable<RpcResult<ReadTableEntryOutput>> readEntry(ReadTableEntryInput input) {
-        return () -> {
-            String nodeId = input.getNid();
-            ReadTableEntryOutputBuilder outputBuilder = new ReadTableEntryOutputBuilder();
-            List<String> result = deviceManager.findDevice(nodeId)
-                    .orElseThrow(IllegalArgumentException::new)
-                    .readTableEntry(input.getTableName());
-            outputBuilder.setEntry(result);
-            LOG.info("Read entry from device success, nodeId = {}.", nodeId);
-            return RpcResultBuilder.success(outputBuilder.build()).build();
-        };
+    private ListenableFuture<RpcResult<ReadTableEntryOutput>> readEntry(ReadTableEntryInput input) {
+        String nodeId = input.getNid();
+        Long pageSize = input.getPageSize();
+        return callDevice(nodeId, CallType.READ, device -> device.readTableEntry(input.getTableName(),
+                Boolean.TRUE.equals(input.isForceDeviceRead()),
+                input.getFormat() == null ? EntryFormat.Text : input.getFormat(),
+                input.getCursor(),
+                pageSize == null ? 0 : (int) Math.min(pageSize, Integer.MAX_VALUE)), page -> {
+                    ReadTableEntryOutputBuilder outputBuilder = new ReadTableEntryOutputBuilder();
+                    outputBuilder.setEntry(page.getEntries());
+                    outputBuilder.setStructuredEntry(page.getStructuredEntries());
+                    outputBuilder.setNextCursor(page.getNextCursor());
+                    LOG.info("Read entry from device success, nodeId = {}.", nodeId);
+                    return rpcResultSuccess(outputBuilder.build());
+                });
     }
 
     private Callable<RpcResult<TransmitPacketOutput>> tranPacket(TransmitPacketInput input) {
@@ -112,37 +202,29 @@ public class P4RuntimeServiceProvider implements P4pluginP4runtimeService {
         };
     }
 
-    private Callable<RpcResult<SetPipelineConfigOutput>> setConfig(SetPipelineConfigInput input) {
-        return () -> {
-            String nodeId = input.getNid();
-            Optional<Device> optional = deviceManager.findDevice(nodeId);
-            optional.orElseThrow(IllegalArgumentException::new).setPipelineConfig();
-            LOG.info("Set device pipeline config success, nodeId = {}.", nodeId);
-            return rpcResultSuccess(null);
-        };
+    private ListenableFuture<RpcResult<SetPipelineConfigOutput>> setConfig(SetPipelineConfigInput input) {
+        String nodeId = input.getNid();
+        boolean force = Boolean.TRUE.equals(input.isForce());
+        return callDevice(nodeId, CallType.DEVICE, device -> device.setPipelineConfig(force), push -> {
+            SetPipelineConfigOutputBuilder outputBuilder = new SetPipelineConfigOutputBuilder();
+            outputBuilder.setPipelinePush(push);
+            LOG.info("Set device pipeline config success, nodeId = {}, push = {}.", nodeId, push);
+            return rpcResultSuccess(outputBuilder.build());
+        });
     }
 
-    private Callable<RpcResult<GetPipelineConfigOutput>> getConfig(GetPipelineConfigInput input) {
-        return () -> {
-            String nodeId = input.getNid();
-            Optional<Device> optional = deviceManager.findDevice(nodeId);
-            P4Info p4info = optional.orElseThrow(IllegalArgumentException::new)
-                    .getPipelineConfig()
-                    .getConfig()
-                    .getP4Info();
-
-            ByteString deviceConfig = optional.orElseThrow(IllegalArgumentException::new)
-                    .getPipelineConfig()
-                    .getConfig()
-                    .getP4DeviceConfig();
-
+    private ListenableFuture<RpcResult<GetPipelineConfigOutput>> getConfig(GetPipelineConfigInput input) {
+        String nodeId = input.getNid();
+        return callDevice(nodeId, CallType.READ, Device::getPipelineConfig, response -> {
+            P4Info p4info = response.getConfig().getP4Info();
+            ByteString deviceConfig = response.getConfig().getP4DeviceConfig();
             String result = TextFormat.printToString(p4info);
             GetPipelineConfigOutputBuilder outputBuilder = new GetPipelineConfigOutputBuilder();
             outputBuilder.setP4Info(result);
             outputBuilder.setDeviceConfig(deviceConfig.toByteArray());
             LOG.info("Get device pipeline config success, nodeId = {}.", nodeId);
             return rpcResultSuccess(outputBuilder.build());
-        };
+        });
     }
 
     private Callable<RpcResult<OpenStreamChannelOutput>> openChannel(OpenStreamChannelInput input) {
@@ -155,73 +237,368 @@ public class P4RuntimeServiceProvider implements P4pluginP4runtimeService {
         };
     }
 
-    private Callable<RpcResult<AddMulticastGroupEntryOutput>> addMulticastGroup(AddMulticastGroupEntryInput input) {
+    private Callable<RpcResult<SetPacketInPolicyOutput>> setPolicy(SetPacketInPolicyInput input) {
         return () -> {
             String nodeId = input.getNid();
             Optional<Device> optional = deviceManager.findDevice(nodeId);
-            optional.orElseThrow(IllegalArgumentException::new).addMulticastGroupEntry(input);
-            LOG.info("Add multicast group entry, nodeId = {}.", nodeId);
+            PacketInPolicy policy = PacketInPolicy.newBuilder()
+                    .setRate(longValue(input.getRate()))
+                    .setBurst(longValue(input.getBurst()))
+                    .setSampleOneIn(longValue(input.getSampleOneIn()))
+                    .setPortMetadata(input.getPortMetadata())
+                    .setPortRate(longValue(input.getPortRate()))
+                    .setPortBurst(longValue(input.getPortBurst()))
+                    .build();
+            optional.orElseThrow(IllegalArgumentException::new).setPacketInPolicy(policy);
             return rpcResultSuccess(null);
         };
     }
 
-    private Callable<RpcResult<AddCloneSessionEntryOutput>> addCloneSession(AddCloneSessionEntryInput input) {
+    private static long longValue(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    private Callable<RpcResult<GetPacketInStatisticsOutput>> getStatistics(GetPacketInStatisticsInput input) {
+        return () -> {
+            String nodeId = input.getNid();
+            Optional<Device> optional = deviceManager.findDevice(nodeId);
+            PacketInPolicer.Counters counters = optional.orElseThrow(IllegalArgumentException::new)
+                    .getPacketInCounters();
+            GetPacketInStatisticsOutputBuilder outputBuilder = new GetPacketInStatisticsOutputBuilder();
+            outputBuilder.setReceived(BigInteger.valueOf(counters.getReceived()));
+            outputBuilder.setAdmitted(BigInteger.valueOf(counters.getAdmitted()));
+            outputBuilder.setSampledOut(BigInteger.valueOf(counters.getSampledOut()));
+            outputBuilder.setPortLimited(BigInteger.valueOf(counters.getPortLimited()));
+            outputBuilder.setDeviceLimited(BigInteger.valueOf(counters.getDeviceLimited()));
+            return rpcResultSuccess(outputBuilder.build());
+        };
+    }
+
+    private Callable<RpcResult<GetPacketOutStatisticsOutput>> getPacketOutStats(GetPacketOutStatisticsInput input) {
         return () -> {
             String nodeId = input.getNid();
             Optional<Device> optional = deviceManager.findDevice(nodeId);
-            optional.orElseThrow(IllegalArgumentException::new).addCloneSessionEntry(input);
+            StreamSender.Metrics metrics = optional.orElseThrow(IllegalArgumentException::new)
+                    .getPacketOutMetrics();
+            GetPacketOutStatisticsOutputBuilder outputBuilder = new GetPacketOutStatisticsOutputBuilder();
+            outputBuilder.setSent(BigInteger.valueOf(metrics.getSent()));
+            outputBuilder.setDropped(BigInteger.valueOf(metrics.getDropped()));
+            outputBuilder.setPendingBytes(BigInteger.valueOf(metrics.getPendingBytes()));
+            outputBuilder.setMaxPendingBytes(BigInteger.valueOf(metrics.getMaxPendingBytes()));
+            return rpcResultSuccess(outputBuilder.build());
+        };
+    }
+
+    private Callable<RpcResult<GetWriteStatisticsOutput>> getWriteStats(GetWriteStatisticsInput input) {
+        return () -> {
+            String nodeId = input.getNid();
+            Device device = deviceManager.findDevice(nodeId).orElseThrow(IllegalArgumentException::new);
+            List<P4RuntimeClient.WriteStripe> stripes = device.getWriteStripes();
+            List<WriteStripe> stripeList = new ArrayList<>(stripes.size());
+            stripes.forEach(stripe -> stripeList.add(new WriteStripeBuilder()
+                    .setIndex((long) stripe.getIndex())
+                    .setInFlight((long) stripe.getInFlight())
+                    .setWrites(BigInteger.valueOf(stripe.getWrites()))
+                    .build()));
+            GetWriteStatisticsOutputBuilder outputBuilder = new GetWriteStatisticsOutputBuilder();
+            outputBuilder.setWriteStripe(stripeList);
+            device.getWriteQueueMetrics().ifPresent(metrics -> outputBuilder.setWriteQueue(buildWriteQueue(metrics)));
+            return rpcResultSuccess(outputBuilder.build());
+        };
+    }
+
+    private static org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.get.write.statistics
+            .output.WriteQueue buildWriteQueue(WriteQueue.Metrics metrics) {
+        return new WriteQueueBuilder()
+                .setBatches(BigInteger.valueOf(metrics.getBatches()))
+                .setUpdates(BigInteger.valueOf(metrics.getUpdates()))
+                .setAverageBatchSize(BigDecimal.valueOf(metrics.getAverageBatchSize())
+                        .setScale(1, RoundingMode.HALF_UP))
+                .setMaxBatchSize(BigInteger.valueOf(metrics.getMaxBatchSize()))
+                .setAverageLingerMicros(BigInteger.valueOf(metrics.getAverageLingerMicros()))
+                .setMaxLingerMicros(BigInteger.valueOf(metrics.getMaxLingerMicros()))
+                .build();
+    }
+
+    private RpcResult<GetRpcExecutorStatisticsOutput> getExecutorStats() {
+        List<Shard> shardList = new ArrayList<>(executor.getShardCount());
+        for (int i = 0; i < executor.getShardCount(); i++) {
+            shardList.add(new ShardBuilder()
+                    .setIndex((long) i)
+                    .setQueueDepth((long) executor.getQueueDepth(i))
+                    .setRejected(BigInteger.valueOf(executor.getRejectedCount(i)))
+                    .build());
+        }
+        GetRpcExecutorStatisticsOutputBuilder outputBuilder = new GetRpcExecutorStatisticsOutputBuilder();
+        outputBuilder.setRejected(BigInteger.valueOf(executor.getRejectedCount()));
+        outputBuilder.setShard(shardList);
+        return rpcResultSuccess(outputBuilder.build());
+    }
+
+    private ListenableFuture<RpcResult<AddMulticastGroupEntryOutput>> addMulticastGroup(
+            AddMulticastGroupEntryInput input) {
+        String nodeId = input.getNid();
+        return callDevice(nodeId, CallType.ENTRY,
+                device -> Arrays.asList("multicast-group", input.getMulticastGroupId()),
+                device -> device.addMulticastGroupEntry(input), response -> {
+            LOG.info("Add multicast group entry, nodeId = {}.", nodeId);
+            return rpcResultSuccess(null);
+        });
+    }
+
+    private ListenableFuture<RpcResult<AddCloneSessionEntryOutput>> addCloneSession(AddCloneSessionEntryInput input) {
+        String nodeId = input.getNid();
+        return callDevice(nodeId, CallType.ENTRY, device -> Arrays.asList("clone-session", input.getSessionId()),
+                device -> device.addCloneSessionEntry(input), response -> {
             LOG.info("Add clone session entry, nodeId = {}.", nodeId);
             return rpcResultSuccess(null);
-        };
+        });
+    }
+
+    private ListenableFuture<RpcResult<BatchWriteOutput>> batchWriteEntries(BatchWriteInput input) {
+        String nodeId = input.getNid();
+        Long maxUpdates = input.getMaxUpdatesPerRequest();
+        List<Operation> operations = input.getOperation() == null
+                ? Collections.emptyList() : input.getOperation();
+        int maxUpdatesPerRequest = maxUpdates == null
+                ? DEFAULT_MAX_UPDATES_PER_REQUEST : (int) Math.min(maxUpdates, Integer.MAX_VALUE);
+
+        return callDevice(nodeId, CallType.DEVICE,
+                device -> device.batchWrite(operations, maxUpdatesPerRequest), results -> {
+            List<Result> resultList = new ArrayList<>(results.size());
+            long failed = results.stream().filter(result -> !result.isSuccess()).count();
+            results.forEach(result -> resultList.add(new ResultBuilder()
+                    .setIndex((long) result.getIndex())
+                    .setCode(result.getCode())
+                    .setMessage(result.getMessage())
+                    .build()));
+            BatchWriteOutputBuilder outputBuilder = new BatchWriteOutputBuilder();
+            outputBuilder.setResult(resultList);
+            LOG.info("Batch write to device, nodeId = {}, updates = {}, failed = {}.",
+                    nodeId, results.size(), failed);
+            return rpcResultSuccess(outputBuilder.build());
+        });
+    }
+
+    private ListenableFuture<RpcResult<ReconcileTableEntriesOutput>> reconcileEntries(
+            ReconcileTableEntriesInput input) {
+        String nodeId = input.getNid();
+        Long maxUpdates = input.getMaxUpdatesPerRequest();
+        List<Entry> entries = input.getEntry() == null ? Collections.emptyList() : input.getEntry();
+        List<String> tableNames = input.getTableName() == null ? Collections.emptyList() : input.getTableName();
+        int maxUpdatesPerRequest = maxUpdates == null
+                ? DEFAULT_MAX_UPDATES_PER_REQUEST : (int) Math.min(maxUpdates, Integer.MAX_VALUE);
+
+        return callDevice(nodeId, CallType.DEVICE,
+                device -> device.reconcile(entries, tableNames, maxUpdatesPerRequest), result -> {
+            List<Failure> failures = new ArrayList<>(result.getFailures().size());
+            for (ReconcileResult.Failure failure : result.getFailures()) {
+                failures.add(new FailureBuilder()
+                        .setUpdateType(failure.getUpdateType())
+                        .setEntry(failure.getEntry())
+                        .setCode(failure.getCode())
+                        .setMessage(failure.getMessage())
+                        .build());
+            }
+            ReconcileTableEntriesOutputBuilder outputBuilder = new ReconcileTableEntriesOutputBuilder();
+            outputBuilder.setInserted((long) result.getInserted());
+            outputBuilder.setModified((long) result.getModified());
+            outputBuilder.setDeleted((long) result.getDeleted());
+            outputBuilder.setUnchanged((long) result.getUnchanged());
+            outputBuilder.setFailure(failures);
+            LOG.info("Reconcile table entries, nodeId = {}, {}.", nodeId, result);
+            return rpcResultSuccess(outputBuilder.build());
+        });
+    }
+
+    /**
+     * Single entry writes to a device with write coalescing enabled are queued
+     * on the device and complete with their own result.
+     */
+    private <T> ListenableFuture<RpcResult<T>> queuedWrite(String nodeId, String operation,
+                                                          Function<Device, Object> keyOf,
+                                                          Function<Device, ListenableFuture<UpdateResult>> write) {
+        return callDevice(nodeId, CallType.QUEUED_ENTRY, keyOf, write, result -> {
+            if (!result.isSuccess()) {
+                LOG.info("{} failed, nodeId = {}, code = {}, reason = {}.",
+                        operation, nodeId, result.getCode(), result.getMessage());
+                return RpcResultBuilder.<T>failed()
+                        .withError(RpcError.ErrorType.APPLICATION, result.getMessage())
+                        .build();
+            }
+            LOG.debug("{} success, nodeId = {}.", operation, nodeId);
+            return rpcResultSuccess(null);
+        });
+    }
+
+    private enum CallType {
+        /* touches the whole device: pipeline push, batch write, reconcile */
+        DEVICE,
+        /* writes a single entry */
+        ENTRY,
+        /* writes a single entry through the write queue of the device */
+        QUEUED_ENTRY,
+        READ
+    }
+
+    /**
+     * Order of the calls of one device. A DEVICE call waits for every call
+     * before it but reads, and every later call waits for it. An entry write
+     * only waits for the previous write of the same entry, or for the last
+     * DEVICE call, so writes of different entries and reads run concurrently.
+     * A queued write only waits for the previous one to be sent, the write
+     * queue keeps their order and can still batch them.
+     */
+    private static final class CallChain {
+        private ListenableFuture<Object> device = Futures.immediateFuture(null);
+        private final Map<Object, EntryTail> entries = new HashMap<>();
+
+        private synchronized ListenableFuture<Object> previous(CallType type, Object key) {
+            if (type == CallType.DEVICE) {
+                List<ListenableFuture<?>> calls = new ArrayList<>(entries.size() + 1);
+                calls.add(device);
+                entries.values().forEach(tail -> calls.add(tail.answered));
+                return settled(calls);
+            }
+            EntryTail tail = type == CallType.READ ? null : entries.get(key);
+            if (tail == null) {
+                return device;
+            }
+            return type == CallType.QUEUED_ENTRY ? tail.sent : tail.answered;
+        }
+
+        private synchronized void record(CallType type, Object key, ListenableFuture<?> sent,
+                                         ListenableFuture<?> answered) {
+            if (type == CallType.DEVICE) {
+                device = settled(answered);
+                entries.clear();
+            } else if (type != CallType.READ) {
+                EntryTail previous = entries.get(key);
+                EntryTail tail = new EntryTail(settled(type == CallType.QUEUED_ENTRY ? sent : answered),
+                        previous == null ? settled(answered) : settled(previous.answered, answered));
+                entries.put(key, tail);
+                /* an entry nobody writes any more costs nothing */
+                tail.answered.addListener(() -> removeTail(key, tail), MoreExecutors.directExecutor());
+            }
+        }
+
+        private synchronized void removeTail(Object key, EntryTail tail) {
+            entries.remove(key, tail);
+        }
+    }
+
+    private static final class EntryTail {
+        private final ListenableFuture<Object> sent;
+        private final ListenableFuture<Object> answered;
+
+        private EntryTail(ListenableFuture<Object> sent, ListenableFuture<Object> answered) {
+            this.sent = sent;
+            this.answered = answered;
+        }
+    }
+
+    private boolean isWriteCoalescing(String nodeId) {
+        return deviceManager.findDevice(nodeId).map(Device::isWriteCoalescing).orElse(false);
     }
 
     @Override
     public ListenableFuture<RpcResult<AddTableEntryOutput>> addTableEntry(AddTableEntryInput input) {
-        return executorService.submit(addEntry(input));
+        if (isWriteCoalescing(input.getNid())) {
+            return queuedWrite(input.getNid(), "Add entry", device -> device.getEntryKey(input),
+                    device -> device.enqueueAddTableEntry(input));
+        }
+        return addEntry(input);
     }
 
     @Override
     public ListenableFuture<RpcResult<ModifyTableEntryOutput>> modifyTableEntry(ModifyTableEntryInput input) {
-        return executorService.submit(modifyEntry(input));
+        if (isWriteCoalescing(input.getNid())) {
+            return queuedWrite(input.getNid(), "Modify entry", device -> device.getEntryKey(input),
+                    device -> device.enqueueModifyTableEntry(input));
+        }
+        return modifyEntry(input);
     }
 
     @Override
     public ListenableFuture<RpcResult<DeleteTableEntryOutput>> deleteTableEntry(DeleteTableEntryInput input) {
-        return executorService.submit(deleteEntry(input));
+        if (isWriteCoalescing(input.getNid())) {
+            return queuedWrite(input.getNid(), "Delete entry", device -> device.getEntryKey(input),
+                    device -> device.enqueueDeleteTableEntry(input));
+        }
+        return deleteEntry(input);
     }
 
     @Override
     public ListenableFuture<RpcResult<ReadTableEntryOutput>> readTableEntry(ReadTableEntryInput input) {
-        return executorService.submit(readEntry(input));
+        return readEntry(input);
     }
 
     @Override
     public ListenableFuture<RpcResult<OpenStreamChannelOutput>> openStreamChannel(OpenStreamChannelInput input) {
-        return executorService.submit(openChannel(input));
+        return executor.submit(input.getNid(), openChannel(input));
     }
 
     @Override
     public ListenableFuture<RpcResult<TransmitPacketOutput>> transmitPacket(TransmitPacketInput input) {
-        return executorService.submit(tranPacket(input));
+        return executor.submit(input.getNid(), tranPacket(input));
+    }
+
+    @Override
+    public ListenableFuture<RpcResult<SetPacketInPolicyOutput>> setPacketInPolicy(SetPacketInPolicyInput input) {
+        return executor.submit(input.getNid(), setPolicy(input));
+    }
+
+    @Override
+    public ListenableFuture<RpcResult<GetPacketInStatisticsOutput>> getPacketInStatistics(
+            GetPacketInStatisticsInput input) {
+        return executor.submit(input.getNid(), getStatistics(input));
+    }
+
+    @Override
+    public ListenableFuture<RpcResult<GetPacketOutStatisticsOutput>> getPacketOutStatistics(
+            GetPacketOutStatisticsInput input) {
+        return executor.submit(input.getNid(), getPacketOutStats(input));
+    }
+
+    @Override
+    public ListenableFuture<RpcResult<GetWriteStatisticsOutput>> getWriteStatistics(GetWriteStatisticsInput input) {
+        return executor.submit(input.getNid(), getWriteStats(input));
+    }
+
+    @Override
+    public ListenableFuture<RpcResult<GetRpcExecutorStatisticsOutput>> getRpcExecutorStatistics(
+            GetRpcExecutorStatisticsInput input) {
+        return Futures.immediateFuture(getExecutorStats());
     }
 
     @Override
     public ListenableFuture<RpcResult<SetPipelineConfigOutput>> setPipelineConfig(SetPipelineConfigInput input) {
-        return executorService.submit(setConfig(input));
+        return setConfig(input);
     }
 
     @Override
     public ListenableFuture<RpcResult<GetPipelineConfigOutput>> getPipelineConfig(GetPipelineConfigInput input) {
-        return executorService.submit(getConfig(input));
+        return getConfig(input);
     }
 
     @Override
     public ListenableFuture<RpcResult<AddMulticastGroupEntryOutput>> addMulticastGroupEntry(AddMulticastGroupEntryInput input) {
-        return executorService.submit(addMulticastGroup(input));
+        return addMulticastGroup(input);
     }
 
     @Override
     public ListenableFuture<RpcResult<AddCloneSessionEntryOutput>> addCloneSessionEntry(AddCloneSessionEntryInput input) {
-        return executorService.submit(addCloneSession(input));
+        return addCloneSession(input);
+    }
+
+    @Override
+    public ListenableFuture<RpcResult<BatchWriteOutput>> batchWrite(BatchWriteInput input) {
+        return batchWriteEntries(input);
+    }
+
+    @Override
+    public ListenableFuture<RpcResult<ReconcileTableEntriesOutput>> reconcileTableEntries(
+            ReconcileTableEntriesInput input) {
+        return reconcileEntries(input);
     }
 }
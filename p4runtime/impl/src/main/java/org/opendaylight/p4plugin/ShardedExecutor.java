@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Executor sharded by node id. Each shard is a single thread with a bounded
+ * queue, so tasks of one device run in submission order while different
+ * devices run in parallel. A task submitted to a full shard is rejected and
+ * counted, and its future fails with a RejectedExecutionException.
+ */
+public class ShardedExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedExecutor.class);
+    private final ThreadPoolExecutor[] executors;
+    private final ListeningExecutorService[] shards;
+    private final AtomicLongArray rejected;
+
+    /**
+     * @param shardCount number of shards, the number of processors if not positive.
+     */
+    public ShardedExecutor(String name, int shardCount, int queueCapacity) {
+        int count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+        executors = new ThreadPoolExecutor[count];
+        shards = new ListeningExecutorService[count];
+        rejected = new AtomicLongArray(count);
+
+        for (int i = 0; i < count; i++) {
+            executors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    new ThreadFactoryBuilder().setNameFormat(name + "-" + i + "-%d").setDaemon(true).build());
+            shards[i] = MoreExecutors.listeningDecorator(executors[i]);
+        }
+        LOG.info("Sharded executor {} started, shards = {}, queue capacity = {}.", name, count, queueCapacity);
+    }
+
+    public <T> ListenableFuture<T> submit(String key, Callable<T> task) {
+        int shard = shardOf(key);
+        try {
+            return shards[shard].submit(task);
+        } catch (RejectedExecutionException e) {
+            long count = rejected.incrementAndGet(shard);
+            LOG.debug("Task rejected, key = {}, shard = {}, rejected = {}.", key, shard, count);
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    private int shardOf(String key) {
+        return key == null ? 0 : Math.floorMod(key.hashCode(), shards.length);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public long getRejectedCount() {
+        long total = 0;
+        for (int i = 0; i < rejected.length(); i++) {
+            total += rejected.get(i);
+        }
+        return total;
+    }
+
+    public long getRejectedCount(int shard) {
+        return rejected.get(shard);
+    }
+
+    public int getQueueDepth(int shard) {
+        return executors[shard].getQueue().size();
+    }
+
+    public void close() {
+        for (ListeningExecutorService shard : shards) {
+            shard.shutdown();
+        }
+        LOG.info("Sharded executor closed, rejected = {}.", getRejectedCount());
+    }
+}
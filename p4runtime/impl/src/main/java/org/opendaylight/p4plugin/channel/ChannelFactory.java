@@ -7,14 +7,63 @@
  */
 package org.opendaylight.p4plugin.channel;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Channels to gRPC servers, shared by all clients of the same address and
+ * reference counted. Acquiring an existing channel takes no lock. When the
+ * last client releases a channel it is shut down, letting the calls in
+ * flight finish for a grace period before they are cancelled.
+ *
+ * All channels run on one Netty event loop group, sized to the number of
+ * processors unless configured, on the native epoll transport when it is on
+ * the classpath and usable, and on NIO otherwise. Transport settings apply to
+ * the channels created after they are set.
+ *
+ * A client may use more than one channel to the same server, one per stripe;
+ * stripe 0 is the channel every other client of the address shares.
+ */
 public final class ChannelFactory {
-    private HashMap<String, ManagedChannel> pool = new HashMap<>();
+    private static final Logger LOG = LoggerFactory.getLogger(ChannelFactory.class);
+    private static final long SHUTDOWN_GRACE_SECONDS = 5;
+    private static final String EPOLL = "io.netty.channel.epoll.Epoll";
+    private static final String EPOLL_EVENT_LOOP_GROUP = "io.netty.channel.epoll.EpollEventLoopGroup";
+    private static final String EPOLL_SOCKET_CHANNEL = "io.netty.channel.epoll.EpollSocketChannel";
     private static ChannelFactory singleton = new ChannelFactory();
+    private final ConcurrentHashMap<String, ChannelHandle> channels = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService terminator = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("p4-channel-terminator-%d").setDaemon(true).build());
+    private EventLoopGroup eventLoopGroup;
+    private Class<? extends Channel> channelType;
+    private volatile int eventLoopThreads;
+    private volatile int flowControlWindow = 1024 * 1024;
+    private volatile int maxInboundMessageSize = 4 * 1024 * 1024;
+    private volatile long keepAliveTimeSeconds;
+    private volatile long keepAliveTimeoutSeconds = 20;
+    private volatile boolean directExecutor;
+    private volatile int writeStripes = 1;
+    private volatile StripeSelection stripeSelection = StripeSelection.ROUND_ROBIN;
+    private volatile long rpcDeadlineMillis = 30000;
+    private volatile int packetOutQueueCapacity = 1024;
+    private volatile OverflowPolicy packetOutOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private volatile long packetOutBlockTimeoutMillis = 100;
+    private volatile int packetInWindow;
 
     private ChannelFactory() {}
 
@@ -22,19 +71,303 @@ public final class ChannelFactory {
         return singleton;
     }
 
-    public synchronized ManagedChannel getManagedChannel(String key) {
-        if (key.matches("\\d+.\\d+.\\d+.\\d+:\\d+")) {
-            ManagedChannel managedChannel = pool.get(key);
-            if (managedChannel == null) {
-                String[] arr = key.split(":");
-                String ip = arr[0];
-                Integer port = Integer.parseInt(arr[1]);
-                managedChannel = ManagedChannelBuilder.forAddress(ip, port).usePlaintext(true).build();
-                pool.put(key, managedChannel);
+    /**
+     * The channel to ip:port, created on first use. Each acquire must be
+     * paired with a release.
+     */
+    public ManagedChannel acquireChannel(String ip, Integer port) {
+        return acquireChannel(ip, port, 0);
+    }
+
+    public ManagedChannel acquireChannel(String ip, Integer port, int stripe) {
+        String key = getKey(ip, port, stripe);
+        while (true) {
+            ChannelHandle handle = channels.get(key);
+            if (handle != null) {
+                if (handle.retain()) {
+                    return handle.channel;
+                }
+                /* released by its last user, a new channel takes its place */
+                channels.remove(key, handle);
+                continue;
+            }
+
+            ChannelHandle created = new ChannelHandle(buildChannel(ip, port));
+            if (channels.putIfAbsent(key, created) == null) {
+                LOG.info("Channel created, address = {}.", key);
+                return created.channel;
+            }
+            created.channel.shutdownNow();
+        }
+    }
+
+    private ManagedChannel buildChannel(String ip, Integer port) {
+        NettyChannelBuilder builder = NettyChannelBuilder.forAddress(ip, port)
+                .usePlaintext(true)
+                .eventLoopGroup(getEventLoopGroup())
+                .channelType(channelType)
+                .flowControlWindow(flowControlWindow)
+                .maxInboundMessageSize(maxInboundMessageSize);
+        if (keepAliveTimeSeconds > 0) {
+            builder.keepAliveTime(keepAliveTimeSeconds, TimeUnit.SECONDS)
+                    .keepAliveTimeout(keepAliveTimeoutSeconds, TimeUnit.SECONDS)
+                    .keepAliveWithoutCalls(true);
+        }
+        if (directExecutor) {
+            builder.directExecutor();
+        }
+        return builder.build();
+    }
+
+    private synchronized EventLoopGroup getEventLoopGroup() {
+        if (eventLoopGroup == null) {
+            int threads = eventLoopThreads > 0 ? eventLoopThreads : Runtime.getRuntime().availableProcessors();
+            DefaultThreadFactory threadFactory = new DefaultThreadFactory("p4-channel-event-loop", true);
+            eventLoopGroup = createEpollEventLoopGroup(threads, threadFactory);
+            if (eventLoopGroup == null) {
+                eventLoopGroup = new NioEventLoopGroup(threads, threadFactory);
+                channelType = NioSocketChannel.class;
+            }
+            LOG.info("Channel event loop group started, threads = {}, channel type = {}.",
+                    threads, channelType.getSimpleName());
+        }
+        return eventLoopGroup;
+    }
+
+    /**
+     * Looked up by name, the native transport is optional at runtime.
+     */
+    @SuppressWarnings("unchecked")
+    private EventLoopGroup createEpollEventLoopGroup(int threads, DefaultThreadFactory threadFactory) {
+        try {
+            if (!(Boolean) Class.forName(EPOLL).getMethod("isAvailable").invoke(null)) {
+                return null;
+            }
+            EventLoopGroup group = (EventLoopGroup) Class.forName(EPOLL_EVENT_LOOP_GROUP)
+                    .getConstructor(int.class, ThreadFactory.class)
+                    .newInstance(threads, threadFactory);
+            channelType = (Class<? extends Channel>) Class.forName(EPOLL_SOCKET_CHANNEL);
+            return group;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOG.debug("Native epoll transport unavailable, reason = {}.", e.toString());
+            return null;
+        }
+    }
+
+    public void releaseChannel(String ip, Integer port) {
+        releaseChannel(ip, port, 0);
+    }
+
+    public void releaseChannel(String ip, Integer port, int stripe) {
+        String key = getKey(ip, port, stripe);
+        ChannelHandle handle = channels.get(key);
+        if (handle == null || !handle.release()) {
+            return;
+        }
+
+        channels.remove(key, handle);
+        ManagedChannel channel = handle.channel;
+        channel.shutdown();
+        terminator.schedule(() -> {
+            if (!channel.isTerminated()) {
+                channel.shutdownNow();
+            }
+        }, SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+        LOG.info("Channel shut down, address = {}.", key);
+    }
+
+    private static String getKey(String ip, Integer port, int stripe) {
+        return stripe == 0 ? ip + ":" + port : ip + ":" + port + "/" + stripe;
+    }
+
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    /**
+     * Event loop threads, the number of processors if not positive. Only
+     * effective before the first channel is created.
+     */
+    public void setEventLoopThreads(int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    public void setFlowControlWindow(int flowControlWindow) {
+        this.flowControlWindow = flowControlWindow;
+    }
+
+    public void setMaxInboundMessageSize(int maxInboundMessageSize) {
+        this.maxInboundMessageSize = maxInboundMessageSize;
+    }
+
+    /**
+     * Keepalive pings are off if not positive.
+     */
+    public void setKeepAliveTimeSeconds(long keepAliveTimeSeconds) {
+        this.keepAliveTimeSeconds = keepAliveTimeSeconds;
+    }
+
+    public void setKeepAliveTimeoutSeconds(long keepAliveTimeoutSeconds) {
+        this.keepAliveTimeoutSeconds = keepAliveTimeoutSeconds;
+    }
+
+    /**
+     * Run call and stream callbacks on the event loop threads instead of an
+     * executor. The callbacks must then never block.
+     */
+    public void setDirectExecutor(boolean directExecutor) {
+        this.directExecutor = directExecutor;
+    }
+
+    /**
+     * Number of channels a P4Runtime client spreads its writes over, at
+     * least 1. Batch writes and reconciles keep a request in flight on each.
+     * Applies to the clients created after it is set.
+     */
+    public void setWriteStripes(int writeStripes) {
+        this.writeStripes = Math.max(1, writeStripes);
+    }
+
+    public int getWriteStripes() {
+        return writeStripes;
+    }
+
+    /**
+     * round-robin or least-outstanding, for the writes not pinned to a stripe.
+     */
+    public void setStripeSelection(String stripeSelection) {
+        try {
+            this.stripeSelection = StripeSelection.valueOf(stripeSelection.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid stripe selection %s.", stripeSelection), e);
+        }
+    }
+
+    public StripeSelection getStripeSelection() {
+        return stripeSelection;
+    }
+
+    /**
+     * Deadline of each non-blocking P4Runtime call, reads included; no
+     * deadline if not positive. Applies to the clients created after it is set.
+     */
+    public void setRpcDeadlineMillis(long rpcDeadlineMillis) {
+        this.rpcDeadlineMillis = Math.max(0, rpcDeadlineMillis);
+    }
+
+    public long getRpcDeadlineMillis() {
+        return rpcDeadlineMillis;
+    }
+
+    /**
+     * Packet-outs a stream channel holds while the transport isn't ready,
+     * at least 1. Applies to the stream channels opened after it is set.
+     */
+    public void setPacketOutQueueCapacity(int packetOutQueueCapacity) {
+        this.packetOutQueueCapacity = Math.max(1, packetOutQueueCapacity);
+    }
+
+    public int getPacketOutQueueCapacity() {
+        return packetOutQueueCapacity;
+    }
+
+    /**
+     * drop-oldest, drop-newest or block.
+     */
+    public void setPacketOutOverflowPolicy(String packetOutOverflowPolicy) {
+        try {
+            this.packetOutOverflowPolicy = OverflowPolicy.valueOf(
+                    packetOutOverflowPolicy.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid overflow policy %s.", packetOutOverflowPolicy), e);
+        }
+    }
+
+    public OverflowPolicy getPacketOutOverflowPolicy() {
+        return packetOutOverflowPolicy;
+    }
+
+    /**
+     * How long the block policy holds a sender waiting for room before
+     * dropping its packet-out; 0 drops right away. Applies to the stream
+     * channels opened after it is set.
+     */
+    public void setPacketOutBlockTimeoutMillis(long packetOutBlockTimeoutMillis) {
+        this.packetOutBlockTimeoutMillis = Math.max(0, packetOutBlockTimeoutMillis);
+    }
+
+    public long getPacketOutBlockTimeoutMillis() {
+        return packetOutBlockTimeoutMillis;
+    }
+
+    /**
+     * Packet-ins a stream channel lets in ahead of the packet-in workers;
+     * inbound flow control is automatic if not positive. Keep it within the
+     * packet-in queue capacity so that packets wait on the switch rather
+     * than being dropped. Applies to the stream channels opened after it is set.
+     */
+    public void setPacketInWindow(int packetInWindow) {
+        this.packetInWindow = Math.max(0, packetInWindow);
+    }
+
+    public int getPacketInWindow() {
+        return packetInWindow;
+    }
+
+    /**
+     * Shut down all channels and the event loop group.
+     */
+    public synchronized void close() {
+        channels.values().forEach(handle -> handle.channel.shutdownNow());
+        channels.clear();
+        if (eventLoopGroup != null) {
+            eventLoopGroup.shutdownGracefully(0, SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+            eventLoopGroup = null;
+        }
+        LOG.info("Channel factory closed.");
+    }
+
+    public enum StripeSelection {
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING
+    }
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK
+    }
+
+    private static final class ChannelHandle {
+        private final ManagedChannel channel;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        private ChannelHandle(ManagedChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * False once the count has dropped to zero, the channel is then
+         * being shut down and must not be handed out.
+         */
+        private boolean retain() {
+            while (true) {
+                int count = refCount.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (refCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
             }
-            return managedChannel;
-        } else {
-            throw new RuntimeException("Invalid key.");
+        }
+
+        /**
+         * True if this was the last reference.
+         */
+        private boolean release() {
+            return refCount.decrementAndGet() == 0;
         }
     }
 }
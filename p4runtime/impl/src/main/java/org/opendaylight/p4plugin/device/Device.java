@@ -7,309 +7,442 @@
  */
 package org.opendaylight.p4plugin.device;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.TextFormat;
+import com.google.rpc.Code;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
 import org.opendaylight.p4plugin.gnmi.gNMIClient;
 import org.opendaylight.p4plugin.gnmi.proto.SubscribeRequest;
 import org.opendaylight.p4plugin.gnmi.proto.SubscriptionMode;
 import org.opendaylight.p4plugin.p4config.proto.P4DeviceConfig;
-import org.opendaylight.p4plugin.p4info.proto.ControllerPacketMetadata;
-import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.P4InfoIndex;
 import org.opendaylight.p4plugin.p4runtime.P4RuntimeClient;
+import org.opendaylight.p4plugin.p4runtime.PacketInPolicer;
+import org.opendaylight.p4plugin.p4runtime.PacketInPolicy;
+import org.opendaylight.p4plugin.p4runtime.StreamSender;
 import org.opendaylight.p4plugin.p4runtime.proto.*;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.gnmi.rev170808.SubscribeInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.gnmi.rev170808.SubscriptionList;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.*;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.batch.write.input.Operation;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.batch.write.input.operation.entity.CloneSessionEntryCase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.batch.write.input.operation.entity.MulticastGroupEntryCase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.batch.write.input.operation.entity.TableEntryCase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.read.table.entry.output.StructuredEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Device {
     private static final Logger LOG = LoggerFactory.getLogger(Device.class);
+    private static final String P4INFO_COOKIE = "p4plugin.p4info.sha256";
+    private static final String DEVICE_DATA_COOKIE = "p4plugin.device-data.sha256";
     private String nodeId;
     private Long deviceId;
     private boolean isConfigured;
     private ByteString deviceConfig;
-    private P4Info p4Info;
+    private P4InfoIndex p4InfoIndex;
+    private final ConcurrentHashMap<String, Map<String, EntryEncoder>> entryEncoders = new ConcurrentHashMap<>();
+    private final TableShadow tableShadow = new TableShadow();
+    private volatile EntryDecoder entryDecoder;
     private P4RuntimeClient p4RuntimeClient;
     private gNMIClient gNMIClient;
+    private WriteQueue writeQueue;
+    private PipelineArtifactCache.Artifact<P4InfoIndex> p4InfoArtifact;
+    private PipelineArtifactCache.Artifact<ByteString> deviceConfigArtifact;
 
     private Device(String nodeId, Long deviceId,
                    P4RuntimeClient p4RuntimeClient,
                    gNMIClient gNMIClient,
-                   P4Info p4Info, ByteString deviceConfig) {
+                   P4InfoIndex p4InfoIndex, ByteString deviceConfig) {
         this.nodeId = nodeId;
         this.deviceId = deviceId;
         this.p4RuntimeClient = p4RuntimeClient;
         this.gNMIClient = gNMIClient;
-        this.p4Info = p4Info;
+        this.p4InfoIndex = p4InfoIndex;
         this.deviceConfig = deviceConfig;
     }
 
-    private int getTableId(String tableName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Table> optional = p4Info.getTablesList()
-                .stream()
-                .filter(table -> table.getPreamble().getName().equals(tableName) || table.getPreamble().getAlias().equals(tableName))
-                .findFirst();
-        return optional.orElseThrow(() -> new IllegalArgumentException(String.format("Table name %s.", tableName)))
-                .getPreamble()
-                .getId();
-    }
-
-    private String getTableName(int tableId) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Table> optional = p4Info.getTablesList()
-                .stream()
-                .filter(table -> table.getPreamble().getId() == tableId)
-                .findFirst();
-        return optional.orElseThrow(() -> new IllegalArgumentException(String.format("Table id %d.", tableId)))
-                .getPreamble()
-                .getName();
-    }
-
-    private int getMatchFieldId(String tableName, String matchFieldName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Table> tableContainer = p4Info.getTablesList()
-                .stream()
-                .filter(table -> table.getPreamble().getName().equals(tableName) || table.getPreamble().getAlias().equals(tableName))
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.MatchField> matchFieldContainer = tableContainer
-                        .orElseThrow(() -> new IllegalArgumentException(String.format("Table name %s.", tableName)))
-                        .getMatchFieldsList()
-                        .stream()
-                        .filter(matchField -> matchField.getName().equals(matchFieldName))
-                        .findFirst();
-
-        return matchFieldContainer
-                .orElseThrow(() -> new IllegalArgumentException(String.format("Match field name %s.", matchFieldName)))
-                .getId();
-    }
-
-    private String getMatchFieldName(int tableId, int matchFieldId) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Table> tableContainer = p4Info.getTablesList()
-                .stream()
-                .filter(table -> table.getPreamble().getId() == tableId)
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.MatchField> matchFieldContainer = tableContainer
-                .orElseThrow(() -> new IllegalArgumentException(String.format("Table id %d.", tableId)))
-                .getMatchFieldsList()
-                .stream()
-                .filter(matchField -> matchField.getId() == (matchFieldId))
-                .findFirst();
-
-        return matchFieldContainer
-                .orElseThrow(() -> new IllegalArgumentException(String.format("Match field id %d.", matchFieldId)))
-                .getName();
-    }
-
-    private int getMatchFieldWidth(String tableName, String matchFieldName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Table> tableContainer = p4Info.getTablesList()
-                .stream()
-                .filter(table -> table.getPreamble().getName().equals(tableName) || table.getPreamble().getAlias().equals(tableName))
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.MatchField> matchFieldContainer = tableContainer
-                        .orElseThrow(() -> new IllegalArgumentException(String.format("Table name %s.", tableName)))
-                        .getMatchFieldsList()
-                        .stream()
-                        .filter(matchField -> matchField.getName().equals(matchFieldName))
-                        .findFirst();
-
-        return (matchFieldContainer
-                .orElseThrow(() -> new IllegalArgumentException(String.format("Match field name %s.",matchFieldName)))
-                .getBitwidth() + 7) / 8;
-    }
-
-    private int getActionId(String actionName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action> optional = p4Info.getActionsList()
-                .stream()
-                .filter(action -> action.getPreamble().getName().equals(actionName) || action.getPreamble().getAlias().equals(actionName))
-                .findFirst();
-        return optional.orElseThrow(() -> new IllegalArgumentException(String.format("Action name %s.", actionName)))
-                .getPreamble()
-                .getId();
-    }
-
-    private String getActionName(int actionId) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action> optional = p4Info.getActionsList()
-                .stream()
-                .filter(action -> action.getPreamble().getId() == actionId)
-                .findFirst();
-        return optional.orElseThrow(() -> new IllegalArgumentException(String.format("Action id %d.", actionId)))
-                .getPreamble()
-                .getName();
-    }
-
-    private int getParamId(String actionName, String paramName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action> actionContainer = p4Info.getActionsList()
-                .stream()
-                .filter(action -> action.getPreamble().getName().equals(actionName) || action.getPreamble().getAlias().equals(actionName))
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action.Param> paramContainer = actionContainer
-                .orElseThrow(() -> new IllegalArgumentException(String.format("Action name %s.", actionName)))
-                .getParamsList()
-                .stream()
-                .filter(param -> param.getName().equals(paramName))
-                .findFirst();
-
-        return paramContainer.orElseThrow(() -> new IllegalArgumentException(String.format("Param name %s.", paramName)))
-                .getId();
-    }
-
-    private String getParamName(int actionId, int paramId) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action> actionContainer = p4Info.getActionsList()
-                .stream()
-                .filter(action -> action.getPreamble().getId() == actionId)
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action.Param> paramContainer = actionContainer
-                .orElseThrow(() -> new IllegalArgumentException(String.format("Action id %d.", actionId)))
-                .getParamsList()
-                .stream()
-                .filter(param -> param.getId() == paramId)
-                .findFirst();
-
-        return paramContainer.orElseThrow(() -> new IllegalArgumentException(String.format("Param id %d.", paramId)))
-                .getName();
-    }
-
-    private int getParamWidth(String actionName, String paramName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action> actionContainer = p4Info.getActionsList()
-                .stream()
-                .filter(action -> action.getPreamble().getName().equals(actionName) || action.getPreamble().getAlias().equals(actionName))
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action.Param> paramContainer = actionContainer
-                .orElseThrow(() -> new IllegalArgumentException(String.format("Action name %s.", actionName)))
-                .getParamsList()
-                .stream()
-                .filter(param -> param.getName().equals(paramName))
-                .findFirst();
-
-        return (paramContainer.orElseThrow(() -> new IllegalArgumentException(String.format("Param name %s.", paramName)))
-                .getBitwidth() + 7) / 8;
-    }
-
-    private int getPacketOutMetadataId(String metadataName) {
-        Optional<ControllerPacketMetadata> controllerPacketMetadataOptional = p4Info.getControllerPacketMetadataList()
-                .stream()
-                .filter(controllerPacketMetadata -> controllerPacketMetadata.getPreamble().getName().equals("packet_out") ||
-                        controllerPacketMetadata.getPreamble().getAlias().equals("packet_out"))
-                .findFirst();
-        return controllerPacketMetadataOptional.orElseThrow(() -> new RuntimeException("No controller metadata named \"packet_out\""))
-                .getMetadataList()
-                .stream()
-                .filter(metadata -> metadata.getName().equals(metadataName))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("No \"packet_out\" metadata named " + metadataName))
-                .getId();
-    }
-
-    private int getPacketOutMetadataWidth(String metadataName) {
-        Optional<ControllerPacketMetadata> controllerPacketMetadataOptional = p4Info.getControllerPacketMetadataList()
-                .stream()
-                .filter(controllerPacketMetadata -> controllerPacketMetadata.getPreamble().getName().equals("packet_out") ||
-                        controllerPacketMetadata.getPreamble().getAlias().equals("packet_out"))
-                .findFirst();
-        return (controllerPacketMetadataOptional.orElseThrow(() -> new RuntimeException("No controller metadata named \"packet_out\""))
-                .getMetadataList()
-                .stream()
-                .filter(metadata -> metadata.getName().equals(metadataName))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("No \"packet_out\" metadata named " + metadataName))
-                .getBitwidth() + 7) / 8;
-    }
-
-    public SetForwardingPipelineConfigResponse setPipelineConfig() {
+    /**
+     * Push the pipeline unless the device already runs it. The running
+     * pipeline is recognized by the content hashes stored in the extras of
+     * its device config, or failing that by comparing it with ours. When only
+     * the P4Info differs, the push keeps the forwarding state if the device
+     * supports it. force always pushes with VERIFY_AND_COMMIT. When the device
+     * keeps its entries, the table shadow is resynced from it before the
+     * result is returned.
+     */
+    public ListenableFuture<PipelinePush> setPipelineConfig(boolean force) {
+        if (force) {
+            return pushPipelineConfig(SetForwardingPipelineConfigRequest.Action.VERIFY_AND_COMMIT);
+        }
+
+        GetForwardingPipelineConfigRequest request = GetForwardingPipelineConfigRequest.newBuilder()
+                .setDeviceId(deviceId)
+                .build();
+        ListenableFuture<ForwardingPipelineConfig> running = Futures.catching(
+                Futures.transform(p4RuntimeClient.getPipelineConfigAsync(request),
+                        GetForwardingPipelineConfigResponse::getConfig, MoreExecutors.directExecutor()),
+                StatusRuntimeException.class, e -> ForwardingPipelineConfig.getDefaultInstance(),
+                MoreExecutors.directExecutor());
+
+        return Futures.transformAsync(running, config -> {
+            P4DeviceConfig runningDeviceConfig;
+            try {
+                runningDeviceConfig = P4DeviceConfig.parseFrom(config.getP4DeviceConfig());
+            } catch (InvalidProtocolBufferException e) {
+                runningDeviceConfig = P4DeviceConfig.getDefaultInstance();
+            }
+
+            Map<String, String> cookies = runningDeviceConfig.getExtras().getKvMap();
+            boolean sameP4Info;
+            boolean sameDeviceData;
+            if (cookies.containsKey(P4INFO_COOKIE) && cookies.containsKey(DEVICE_DATA_COOKIE)) {
+                sameP4Info = cookies.get(P4INFO_COOKIE).equals(getArtifactHash(p4InfoArtifact));
+                sameDeviceData = cookies.get(DEVICE_DATA_COOKIE).equals(getArtifactHash(deviceConfigArtifact));
+            } else {
+                sameP4Info = config.getP4Info().equals(p4InfoIndex.getP4Info());
+                sameDeviceData = config.hasP4Info() && runningDeviceConfig.getDeviceData().equals(deviceConfig);
+            }
+
+            if (sameP4Info && sameDeviceData) {
+                isConfigured = true;
+                LOG.info("Device already runs the pipeline, push skipped, node = {}.", nodeId);
+                return Futures.transform(resyncTableShadow(), v -> PipelinePush.Skipped,
+                        MoreExecutors.directExecutor());
+            }
+            if (sameDeviceData) {
+                return Futures.catchingAsync(
+                        pushPipelineConfig(SetForwardingPipelineConfigRequest.Action.RECONCILE_AND_COMMIT),
+                        StatusRuntimeException.class, e -> {
+                            LOG.info("Pipeline reconcile refused, committing instead, node = {}, status = {}.",
+                                    nodeId, e.getStatus());
+                            return pushPipelineConfig(SetForwardingPipelineConfigRequest.Action.VERIFY_AND_COMMIT);
+                        }, MoreExecutors.directExecutor());
+            }
+            return pushPipelineConfig(SetForwardingPipelineConfigRequest.Action.VERIFY_AND_COMMIT);
+        }, MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<PipelinePush> pushPipelineConfig(SetForwardingPipelineConfigRequest.Action action) {
         ForwardingPipelineConfig.Builder configBuilder = ForwardingPipelineConfig.newBuilder();
         P4DeviceConfig.Builder p4DeviceConfigBuilder = P4DeviceConfig.newBuilder();
         p4DeviceConfigBuilder.setDeviceData(deviceConfig);
+        p4DeviceConfigBuilder.getExtrasBuilder()
+                .putKv(P4INFO_COOKIE, getArtifactHash(p4InfoArtifact))
+                .putKv(DEVICE_DATA_COOKIE, getArtifactHash(deviceConfigArtifact));
         configBuilder.setP4DeviceConfig(p4DeviceConfigBuilder.build().toByteString());
-        configBuilder.setP4Info(p4Info);
+        configBuilder.setP4Info(p4InfoIndex.getP4Info());
         Uint128.Builder electionIdBuilder = Uint128.newBuilder();
         electionIdBuilder.setLow(0);
         electionIdBuilder.setHigh(0);
         SetForwardingPipelineConfigRequest request = SetForwardingPipelineConfigRequest.newBuilder()
-                .setAction(SetForwardingPipelineConfigRequest.Action.VERIFY_AND_COMMIT)
+                .setAction(action)
                 .setDeviceId(deviceId)
                 .setRoleId(0)
                 .setElectionId(electionIdBuilder.build())
                 .setConfig(configBuilder.build())
                 .build();
 
-        SetForwardingPipelineConfigResponse response;
-        response = p4RuntimeClient.setPipelineConfig(request);
-        isConfigured = true;
-        return response;
+        if (action == SetForwardingPipelineConfigRequest.Action.RECONCILE_AND_COMMIT) {
+            return Futures.transformAsync(p4RuntimeClient.setPipelineConfigAsync(request), response -> {
+                isConfigured = true;
+                return Futures.transform(resyncTableShadow(), v -> PipelinePush.Reconciled,
+                        MoreExecutors.directExecutor());
+            }, MoreExecutors.directExecutor());
+        }
+        return Futures.transform(p4RuntimeClient.setPipelineConfigAsync(request), response -> {
+            tableShadow.clear();
+            isConfigured = true;
+            return PipelinePush.Committed;
+        }, MoreExecutors.directExecutor());
     }
 
-    public GetForwardingPipelineConfigResponse getPipelineConfig() {
+    /**
+     * Replace the whole table shadow with a wildcard read of the device, which
+     * kept its forwarding state through a skipped or reconcile push. If the
+     * read fails the shadow is invalidated, so that reads of a table go to
+     * the device until it is resynced.
+     */
+    private ListenableFuture<Void> resyncTableShadow() {
+        SettableFuture<Void> future = SettableFuture.create();
+        Map<Integer, List<org.opendaylight.p4plugin.p4runtime.proto.TableEntry>> tables = new HashMap<>();
+        p4RuntimeClient.readAsync(buildReadRequest(0), new StreamObserver<ReadResponse>() {
+            @Override
+            public void onNext(ReadResponse response) {
+                response.getEntitiesList().forEach(entity -> tables.computeIfAbsent(
+                        entity.getTableEntry().getTableId(), k -> new ArrayList<>()).add(entity.getTableEntry()));
+                if (response.getComplete()) {
+                    onCompleted();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                LOG.info("Table shadow resync exception, node = {}, reason = {}.", nodeId, throwable.getMessage());
+                tableShadow.invalidate();
+                future.set(null);
+            }
+
+            @Override
+            public void onCompleted() {
+                if (future.isDone()) {
+                    return;
+                }
+                tableShadow.resyncAll(tables);
+                future.set(null);
+            }
+        });
+        return future;
+    }
+
+    private static String getArtifactHash(PipelineArtifactCache.Artifact<?> artifact) {
+        return artifact == null ? "" : artifact.getHash();
+    }
+
+    public ListenableFuture<GetForwardingPipelineConfigResponse> getPipelineConfig() {
         checkInit();
-        GetForwardingPipelineConfigResponse response;
         GetForwardingPipelineConfigRequest request = GetForwardingPipelineConfigRequest.newBuilder()
                 .setDeviceId(deviceId)
                 .build();
-        response = p4RuntimeClient.getPipelineConfig(request);
-        return response;
+        return p4RuntimeClient.getPipelineConfigAsync(request);
     }
 
-    public WriteResponse addTableEntry(
+    public ListenableFuture<WriteResponse> addTableEntry(
             org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntry tableEntry) {
         checkInit();
-        WriteResponse response;
-        WriteRequest request = buildWriteRequest(convert2ProtoEntry(tableEntry), Update.Type.INSERT);
-        response = p4RuntimeClient.write(request);
-        return response;
+        return writeUpdate(buildUpdate(convert2ProtoEntry(tableEntry), Update.Type.INSERT));
     }
 
-    public WriteResponse modifyTableEntry(
+    public ListenableFuture<WriteResponse> modifyTableEntry(
             org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntry tableEntry) {
         checkInit();
-        WriteResponse response;
-        WriteRequest request = buildWriteRequest(convert2ProtoEntry(tableEntry), Update.Type.MODIFY);
-        response = p4RuntimeClient.write(request);
-        return response;
+        return writeUpdate(buildUpdate(convert2ProtoEntry(tableEntry), Update.Type.MODIFY));
     }
 
-    public WriteResponse deleteTableEntry(
+    public ListenableFuture<WriteResponse> deleteTableEntry(
             org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntryKey tableEntryKey) {
         checkInit();
-        WriteResponse response;
-        WriteRequest request = buildWriteRequest(convert2ProtoEntry(tableEntryKey), Update.Type.DELETE);
-        response = p4RuntimeClient.write(request);
-        return response;
+        return writeUpdate(buildUpdate(convert2ProtoEntry(tableEntryKey), Update.Type.DELETE));
     }
 
-    public List<String> readTableEntry(String tableName) {
+    /**
+     * Identifies the table entry a single entry write touches, so that writes
+     * of the same entry can be kept in order: table id and canonical match key.
+     */
+    public Object getEntryKey(
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntryKey tableEntryKey) {
         checkInit();
-        ReadRequest.Builder request = ReadRequest.newBuilder();
-        Entity.Builder entityBuilder = Entity.newBuilder();
-        org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder entryBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder();
-        entryBuilder.setTableId(getTableId(tableName));
-        entityBuilder.setTableEntry(entryBuilder);
-        request.addEntities(entityBuilder);
-        request.setDeviceId(deviceId);
+        org.opendaylight.p4plugin.p4runtime.proto.TableEntry entry = convert2ProtoEntry(tableEntryKey);
+        return Arrays.asList(entry.getTableId(), TableShadow.matchKey(entry));
+    }
 
-        Iterator<ReadResponse> responses = p4RuntimeClient.read(request.build());
-        List<java.lang.String> result = new ArrayList<>();
+    /**
+     * Table entry writes through the write queue, coalesced with other single
+     * writes to this device when write coalescing is enabled, or written right
+     * away otherwise. The future completes with the result of this update.
+     */
+    public ListenableFuture<UpdateResult> enqueueAddTableEntry(
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntry tableEntry) {
+        checkInit();
+        return enqueueUpdate(buildUpdate(convert2ProtoEntry(tableEntry), Update.Type.INSERT));
+    }
 
-        while (responses.hasNext()) {
-            ReadResponse response = responses.next();
-            List<Entity> entityList = response.getEntitiesList();
-            boolean isCompleted = response.getComplete();
-            entityList.forEach(entity -> {
-                String str = convert2TextEntry(entity.getTableEntry());
-                result.add(str);
-            });
-            if (isCompleted) break;
+    public ListenableFuture<UpdateResult> enqueueModifyTableEntry(
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntry tableEntry) {
+        checkInit();
+        return enqueueUpdate(buildUpdate(convert2ProtoEntry(tableEntry), Update.Type.MODIFY));
+    }
+
+    public ListenableFuture<UpdateResult> enqueueDeleteTableEntry(
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntryKey tableEntryKey) {
+        checkInit();
+        return enqueueUpdate(buildUpdate(convert2ProtoEntry(tableEntryKey), Update.Type.DELETE));
+    }
+
+    private ListenableFuture<UpdateResult> enqueueUpdate(Update update) {
+        if (writeQueue != null) {
+            return writeQueue.submit(update);
         }
-        return result;
+        return Futures.transform(writeUpdates(Collections.singletonList(update)),
+                results -> results.get(0), MoreExecutors.directExecutor());
+    }
+
+    public boolean isWriteCoalescing() {
+        return writeQueue != null;
+    }
+
+    public List<P4RuntimeClient.WriteStripe> getWriteStripes() {
+        return p4RuntimeClient.getWriteStripes();
+    }
+
+    public StreamSender.Metrics getPacketOutMetrics() {
+        return p4RuntimeClient.getPacketOutMetrics();
+    }
+
+    public void setPacketInPolicy(PacketInPolicy policy) {
+        checkInit();
+        p4RuntimeClient.setPacketInPolicy(policy);
+    }
+
+    public PacketInPolicy getPacketInPolicy() {
+        return p4RuntimeClient.getPacketInPolicy();
+    }
+
+    public PacketInPolicer.Counters getPacketInCounters() {
+        return p4RuntimeClient.getPacketInCounters();
+    }
+
+    public Optional<WriteQueue.Metrics> getWriteQueueMetrics() {
+        return Optional.ofNullable(writeQueue).map(WriteQueue::getMetrics);
+    }
+
+    /**
+     * A page of the entries of a table, from the table shadow. With
+     * forceDeviceRead, or if the shadow doesn't cover the table, the first
+     * page reads the device first and replaces the shadow of the table with
+     * what it reports, which covers it from then on. The pages after it are
+     * served from that shadow, so paging doesn't read the whole table again.
+     * Pages follow the match key order; cursor is the nextCursor of the
+     * previous page, or null for the first one. A pageSize of 0 reads the
+     * whole table.
+     */
+    public ListenableFuture<TableEntryPage> readTableEntry(String tableName, boolean forceDeviceRead,
+                                                           EntryFormat format, String cursor, int pageSize) {
+        checkInit();
+        int tableId = p4InfoIndex.getTable(tableName).getId();
+        ByteString after = cursor == null ? null : decodeCursor(cursor);
+        if ((!forceDeviceRead && tableShadow.isCovered(tableId)) || after != null) {
+            return Futures.immediateFuture(readShadowPage(tableId, format, after, pageSize));
+        }
+
+        SettableFuture<TableEntryPage> future = SettableFuture.create();
+        List<org.opendaylight.p4plugin.p4runtime.proto.TableEntry> entries = new ArrayList<>();
+        p4RuntimeClient.readAsync(buildReadRequest(tableId), new StreamObserver<ReadResponse>() {
+            @Override
+            public void onNext(ReadResponse response) {
+                response.getEntitiesList().forEach(entity -> entries.add(entity.getTableEntry()));
+                if (response.getComplete()) {
+                    onCompleted();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                LOG.info("Read RPC exception, node = {}, reason = {}.", nodeId, throwable.getMessage());
+                future.setException(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    tableShadow.resync(tableId, entries);
+                    future.set(readShadowPage(tableId, format, after, pageSize));
+                } catch (RuntimeException e) {
+                    future.setException(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    private TableEntryPage readShadowPage(int tableId, EntryFormat format, ByteString after, int pageSize) {
+        int limit = pageSize > 0 ? pageSize : Integer.MAX_VALUE;
+        /* one more than asked tells whether there is a next page */
+        List<TableShadow.ShadowEntry> shadowEntries = tableShadow.getEntries(tableId, after,
+                limit == Integer.MAX_VALUE ? limit : limit + 1);
+        String nextCursor = null;
+        if (shadowEntries.size() > limit) {
+            shadowEntries = shadowEntries.subList(0, limit);
+            nextCursor = encodeCursor(shadowEntries.get(limit - 1).getMatchKey());
+        }
+
+        List<String> entries = new ArrayList<>();
+        List<StructuredEntry> structuredEntries = new ArrayList<>();
+        if (format == EntryFormat.Structured) {
+            EntryDecoder decoder = getEntryDecoder();
+            shadowEntries.forEach(shadowEntry -> structuredEntries.add(shadowEntry.getStructured(decoder)));
+        } else {
+            shadowEntries.forEach(shadowEntry -> entries.add(shadowEntry.getText()));
+        }
+        return new TableEntryPage(entries, structuredEntries, nextCursor);
+    }
+
+    private static String encodeCursor(ByteString matchKey) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(matchKey.toByteArray());
+    }
+
+    private static ByteString decodeCursor(String cursor) {
+        try {
+            return ByteString.copyFrom(Base64.getUrlDecoder().decode(cursor));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid cursor %s.", cursor), e);
+        }
+    }
+
+    /**
+     * Entries of a table read from the device, decoded one by one as the read
+     * responses arrive, so the table is never held in memory as a whole. The
+     * iterator blocks while waiting for responses and must be drained.
+     */
+    public Iterator<StructuredEntry> streamTableEntries(String tableName) {
+        checkInit();
+        int tableId = p4InfoIndex.getTable(tableName).getId();
+        Iterator<ReadResponse> responses = p4RuntimeClient.read(buildReadRequest(tableId));
+        EntryDecoder decoder = getEntryDecoder();
+
+        return new Iterator<StructuredEntry>() {
+            private Iterator<Entity> entities = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!entities.hasNext() && responses.hasNext()) {
+                    entities = responses.next().getEntitiesList().iterator();
+                }
+                return entities.hasNext();
+            }
+
+            @Override
+            public StructuredEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return decoder.decode(entities.next().getTableEntry());
+            }
+        };
+    }
+
+    private ReadRequest buildReadRequest(int tableId) {
+        return buildReadRequest(Collections.singleton(tableId));
+    }
+
+    /**
+     * One read of the entries of the given tables; a table id of 0 stands for every table.
+     */
+    private ReadRequest buildReadRequest(Collection<Integer> tableIds) {
+        ReadRequest.Builder request = ReadRequest.newBuilder();
+        tableIds.forEach(tableId -> {
+            Entity.Builder entityBuilder = Entity.newBuilder();
+            org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder entryBuilder =
+                    org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder();
+            entryBuilder.setTableId(tableId);
+            entityBuilder.setTableEntry(entryBuilder);
+            request.addEntities(entityBuilder);
+        });
+        request.setDeviceId(deviceId);
+        return request.build();
     }
 
     public void transmitPacket(byte[] payload) {
@@ -324,49 +457,343 @@ public class Device {
     public void transmitPacket(List<org.opendaylight.yang.gen.v1.urn
             .opendaylight.p4plugin.p4runtime.rev170808.packet.metadata.Metadata> metadataList, byte[] payload) {
         checkInit();
-        PacketOut.Builder packetOutBuilder = PacketOut.newBuilder();
-        packetOutBuilder.setPayload(ByteString.copyFrom(payload));
+        Map<String, byte[]> values = new LinkedHashMap<>();
+        metadataList.forEach(metadata -> values.put(metadata.getMetadataName(), metadata.getMetadataValue()));
+        p4RuntimeClient.transmitPacket(compilePacketOut(values).packet(payload).getRequest());
+    }
 
-        metadataList.forEach(metadata -> {
-            String name = metadata.getMetadataName();
-            byte[] value = metadata.getMetadataValue();
-            org.opendaylight.p4plugin.p4runtime.proto.PacketMetadata.Builder packetMetadataBuilder =
-                    org.opendaylight.p4plugin.p4runtime.proto.PacketMetadata.newBuilder();
-            packetMetadataBuilder.setMetadataId(getPacketOutMetadataId(name));
-            int valueWidth = getPacketOutMetadataWidth(name);
-
-            if(value.length < valueWidth) {
-                byte[] actual = new byte[valueWidth];
-                Arrays.fill(actual,(byte)0);
-                System.arraycopy(value, 0, actual, valueWidth - value.length, value.length);
-                packetMetadataBuilder.setValue(ByteString.copyFrom(actual, 0, valueWidth));
-            } else {
-                packetMetadataBuilder.setValue(ByteString.copyFrom(value, 0, valueWidth));
-            }
+    /**
+     * Resolve packet-out metadata values by name once, for any number of
+     * packets sent with {@link #transmitPackets(List)}.
+     */
+    public PacketOutTemplate compilePacketOut(Map<String, byte[]> metadata) {
+        checkInit();
+        return PacketOutTemplate.compile(nodeId, p4InfoIndex.getPacketOutMetadata(), metadata);
+    }
 
-            packetOutBuilder.addMetadata(packetMetadataBuilder);
-        });
-        StreamMessageRequest.Builder requestBuilder = StreamMessageRequest.newBuilder();
-        requestBuilder.setPacket(packetOutBuilder);
-        p4RuntimeClient.transmitPacket(requestBuilder.build());
+    /**
+     * Write packets to the stream channel from the calling thread, in list
+     * order, without going through an executor. The packets must have been
+     * made from templates of this device.
+     */
+    public void transmitPackets(List<PacketOutTemplate.Packet> packets) {
+        checkInit();
+        List<StreamMessageRequest> requests = new ArrayList<>(packets.size());
+        for (PacketOutTemplate.Packet packet : packets) {
+            if (!nodeId.equals(packet.getNodeId())) {
+                throw new IllegalArgumentException(String.format("Packet of %s sent to %s.",
+                        packet.getNodeId(), nodeId));
+            }
+            requests.add(packet.getRequest());
+        }
+        p4RuntimeClient.transmitPackets(requests);
     }
 
-    public WriteResponse addMulticastGroupEntry(
+    public ListenableFuture<WriteResponse> addMulticastGroupEntry(
             org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.MulticastGroupEntry multicastGroupEntry) {
         checkInit();
-        WriteResponse response;
-        WriteRequest request = buildWriteRequest(convert2ProtoEntry(multicastGroupEntry), Update.Type.INSERT);
-        response = p4RuntimeClient.write(request);
-        return response;
+        return writeUpdate(buildUpdate(convert2ProtoEntry(multicastGroupEntry), Update.Type.INSERT));
     }
 
-    public WriteResponse addCloneSessionEntry(
+    public ListenableFuture<WriteResponse> addCloneSessionEntry(
             org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.CloneSessionEntry cloneSessionEntry) {
         checkInit();
-        WriteResponse response;
-        WriteRequest request = buildWriteRequest(convert2ProtoEntry(cloneSessionEntry), Update.Type.INSERT);
-        response = p4RuntimeClient.write(request);
-        return response;
+        return writeUpdate(buildUpdate(convert2ProtoEntry(cloneSessionEntry), Update.Type.INSERT));
+    }
+
+    /**
+     * Write a mixed list of operations, packed into WriteRequests of at most
+     * maxUpdatesPerRequest updates each. Returns one result per operation, in
+     * input order. An operation that can't be encoded fails alone and isn't sent.
+     * Only operations on the same entry are applied in input order, see
+     * writeStriped.
+     */
+    public ListenableFuture<List<UpdateResult>> batchWrite(List<Operation> operations, int maxUpdatesPerRequest) {
+        checkInit();
+        if (maxUpdatesPerRequest <= 0) {
+            throw new IllegalArgumentException("Max updates per request must be positive.");
+        }
+
+        UpdateResult[] results = new UpdateResult[operations.size()];
+        List<Update> updates = new ArrayList<>(operations.size());
+        List<Integer> indexes = new ArrayList<>(operations.size());
+
+        for (int i = 0; i < operations.size(); i++) {
+            try {
+                updates.add(convert2Update(operations.get(i)));
+                indexes.add(i);
+            } catch (IllegalArgumentException e) {
+                results[i] = new UpdateResult(i, Code.INVALID_ARGUMENT_VALUE, e.getMessage());
+            }
+        }
+        return Futures.transform(writeStriped(updates, indexes, results, maxUpdatesPerRequest),
+                v -> Arrays.asList(results), MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Bring the given tables to the desired entries. The tables in scope are
+     * read in one request, and only the difference is written, in requests
+     * of at most maxUpdatesPerRequest updates. The scope is the tables of the
+     * desired entries plus tableNames, a table with no desired entry is
+     * emptied. The table shadow of those tables is resynced from the read.
+     */
+    public ListenableFuture<ReconcileResult> reconcile(
+            List<? extends org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntry> entries,
+            Collection<String> tableNames, int maxUpdatesPerRequest) {
+        checkInit();
+        if (maxUpdatesPerRequest <= 0) {
+            throw new IllegalArgumentException("Max updates per request must be positive.");
+        }
+
+        Reconciler reconciler = new Reconciler();
+        tableNames.forEach(tableName -> reconciler.addTable(p4InfoIndex.getTable(tableName).getId()));
+        entries.forEach(entry -> reconciler.addDesired(convert2ProtoEntry(entry)));
+
+        if (reconciler.getTableIds().isEmpty()) {
+            return Futures.immediateFuture(buildReconcileResult(Collections.emptyList(), new UpdateResult[0], 0));
+        }
+
+        SettableFuture<List<Update>> diff = SettableFuture.create();
+        p4RuntimeClient.readAsync(buildReadRequest(reconciler.getTableIds()), new StreamObserver<ReadResponse>() {
+            @Override
+            public void onNext(ReadResponse response) {
+                response.getEntitiesList().forEach(entity -> reconciler.addActual(entity.getTableEntry()));
+                if (response.getComplete()) {
+                    onCompleted();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                LOG.info("Reconcile read exception, node = {}, reason = {}.", nodeId, throwable.getMessage());
+                diff.setException(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+                if (diff.isDone()) {
+                    return;
+                }
+                reconciler.getActual().forEach(tableShadow::resync);
+                diff.set(reconciler.diff());
+            }
+        });
+
+        return Futures.transformAsync(diff, updates -> {
+            UpdateResult[] results = new UpdateResult[updates.size()];
+            List<Integer> indexes = new ArrayList<>(updates.size());
+            for (int i = 0; i < updates.size(); i++) {
+                indexes.add(i);
+            }
+            /* the deletes come first and free table space, so all of them
+             * land, on every stripe, before the first modify or insert is sent */
+            int deletes = 0;
+            while (deletes < updates.size() && updates.get(deletes).getType() == Update.Type.DELETE) {
+                deletes++;
+            }
+            int firstWrite = deletes;
+            ListenableFuture<?> deleted = writeStriped(updates.subList(0, firstWrite),
+                    indexes.subList(0, firstWrite), results, maxUpdatesPerRequest);
+            ListenableFuture<?> written = Futures.transformAsync(deleted, v -> writeStriped(
+                    updates.subList(firstWrite, updates.size()), indexes.subList(firstWrite, updates.size()),
+                    results, maxUpdatesPerRequest), MoreExecutors.directExecutor());
+            return Futures.transform(written, v -> buildReconcileResult(updates, results,
+                    reconciler.getUnchanged()), MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor());
+    }
+
+    private ReconcileResult buildReconcileResult(List<Update> updates, UpdateResult[] results, int unchanged) {
+        int[] counts = new int[Update.Type.values().length];
+        List<ReconcileResult.Failure> failures = new ArrayList<>();
+        for (int i = 0; i < updates.size(); i++) {
+            Update update = updates.get(i);
+            if (results[i].isSuccess()) {
+                counts[update.getType().ordinal()]++;
+            } else {
+                failures.add(new ReconcileResult.Failure(convert2UpdateType(update.getType()),
+                        convert2TextEntry(update.getEntity().getTableEntry()),
+                        results[i].getCode(), results[i].getMessage()));
+            }
+        }
+        ReconcileResult result = new ReconcileResult(counts[Update.Type.INSERT.ordinal()],
+                counts[Update.Type.MODIFY.ordinal()], counts[Update.Type.DELETE.ordinal()], unchanged, failures);
+        LOG.info("Reconcile done, node = {}, {}.", nodeId, result);
+        return result;
+    }
+
+    /**
+     * Write the updates in requests of at most maxUpdatesPerRequest updates,
+     * filling results at the given indexes. Each update goes to the write
+     * stripe of its entry and the requests of a stripe are sent one after the
+     * other, so every stripe keeps a request in flight while later updates of
+     * an entry are never applied before earlier ones. Updates of different
+     * entries may be applied in any order; a caller that needs some of them
+     * first, as reconcile does with its deletes, waits for them before
+     * writing the others.
+     */
+    private ListenableFuture<?> writeStriped(List<Update> updates, List<Integer> indexes,
+                                             UpdateResult[] results, int maxUpdatesPerRequest) {
+        int stripes = p4RuntimeClient.getWriteStripeCount();
+        List<ListenableFuture<?>> written = new ArrayList<>(stripes);
+        List<List<Update>> stripeUpdates = new ArrayList<>(stripes);
+        List<List<Integer>> stripeIndexes = new ArrayList<>(stripes);
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            written.add(Futures.immediateFuture(null));
+            stripeUpdates.add(new ArrayList<>());
+            stripeIndexes.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < updates.size(); i++) {
+            int stripe = stripes == 1 ? 0 : Math.floorMod(getStripeKey(updates.get(i)), stripes);
+            stripeUpdates.get(stripe).add(updates.get(i));
+            stripeIndexes.get(stripe).add(indexes.get(i));
+            if (stripeUpdates.get(stripe).size() == maxUpdatesPerRequest) {
+                written.set(stripe, writeAfter(written.get(stripe), stripe, stripeUpdates.get(stripe),
+                        stripeIndexes.get(stripe), results));
+                stripeUpdates.set(stripe, new ArrayList<>());
+                stripeIndexes.set(stripe, new ArrayList<>());
+            }
+        }
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            if (!stripeUpdates.get(stripe).isEmpty()) {
+                written.set(stripe, writeAfter(written.get(stripe), stripe, stripeUpdates.get(stripe),
+                        stripeIndexes.get(stripe), results));
+            }
+        }
+        return Futures.allAsList(written);
+    }
+
+    /**
+     * The same for every update of an entry: table id and match key for a
+     * table entry, group or session id for a replication engine entry.
+     */
+    private static int getStripeKey(Update update) {
+        Entity entity = update.getEntity();
+        if (entity.hasTableEntry()) {
+            return 31 * entity.getTableEntry().getTableId()
+                    + TableShadow.matchKey(entity.getTableEntry()).hashCode();
+        }
+        PacketReplicationEngineEntry entry = entity.getPacketReplicationEngineEntry();
+        return entry.hasMulticastGroupEntry() ? entry.getMulticastGroupEntry().getMulticastGroupId()
+                : entry.getCloneSessionEntry().getSessionId();
+    }
+
+    private ListenableFuture<?> writeAfter(ListenableFuture<?> previous, int stripe, List<Update> updates,
+                                           List<Integer> indexes, UpdateResult[] results) {
+        return Futures.transformAsync(previous, v -> Futures.transform(writeUpdates(updates, stripe),
+                batchResults -> {
+                    collectResults(batchResults, indexes, results);
+                    return null;
+                }, MoreExecutors.directExecutor()), MoreExecutors.directExecutor());
+    }
+
+    private void collectResults(List<UpdateResult> batchResults, List<Integer> indexes, UpdateResult[] results) {
+        for (int i = 0; i < batchResults.size(); i++) {
+            int index = indexes.get(i);
+            UpdateResult result = batchResults.get(i);
+            results[index] = new UpdateResult(index, result.getCode(), result.getMessage());
+        }
+    }
+
+    /**
+     * Write a single update, recording it in the table shadow once accepted.
+     */
+    private ListenableFuture<WriteResponse> writeUpdate(Update update) {
+        return Futures.transform(p4RuntimeClient.writeAsync(buildWriteRequest(update)), response -> {
+            tableShadow.apply(update);
+            return response;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Write the updates in one WriteRequest. The results are indexed by the
+     * position of each update in the list.
+     */
+    private ListenableFuture<List<UpdateResult>> writeUpdates(List<Update> updates) {
+        return collectUpdateResults(updates, p4RuntimeClient.writeAsync(buildWriteRequest(updates)));
+    }
+
+    private ListenableFuture<List<UpdateResult>> writeUpdates(List<Update> updates, int stripe) {
+        return collectUpdateResults(updates, p4RuntimeClient.writeAsync(buildWriteRequest(updates), stripe));
+    }
+
+    private ListenableFuture<List<UpdateResult>> collectUpdateResults(List<Update> updates,
+                                                                      ListenableFuture<WriteResponse> response) {
+        ListenableFuture<List<UpdateResult>> written = Futures.transform(response, writeResponse -> {
+            List<UpdateResult> results = new ArrayList<>(updates.size());
+            for (int i = 0; i < updates.size(); i++) {
+                results.add(new UpdateResult(i, Code.OK_VALUE, null));
+            }
+            return results;
+        }, MoreExecutors.directExecutor());
+
+        written = Futures.catching(written, StatusRuntimeException.class, e -> {
+            LOG.info("Write updates failed, node = {}, updates = {}, status = {}.",
+                    nodeId, updates.size(), e.getStatus());
+            return UpdateResult.fromWriteError(e, updates.size());
+        }, MoreExecutors.directExecutor());
+
+        return Futures.transform(written, results -> {
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).isSuccess()) {
+                    tableShadow.apply(updates.get(i));
+                }
+            }
+            return results;
+        }, MoreExecutors.directExecutor());
+    }
+
+    private Update convert2Update(Operation operation) {
+        Update.Type type = convert2UpdateType(operation.getUpdateType());
+        org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.batch.write.input.operation.Entity
+                entity = operation.getEntity();
+
+        if (entity instanceof TableEntryCase) {
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.batch.write.input.operation
+                    .entity.table.entry._case.TableEntry tableEntry =
+                    required(((TableEntryCase) entity).getTableEntry(), "table-entry");
+            return type == Update.Type.DELETE
+                    ? buildUpdate(convert2ProtoEntry((TableEntryKey) tableEntry), type)
+                    : buildUpdate(convert2ProtoEntry(tableEntry), type);
+        } else if (entity instanceof MulticastGroupEntryCase) {
+            return buildUpdate(convert2ProtoEntry(required(((MulticastGroupEntryCase) entity)
+                    .getMulticastGroupEntry(), "multicast-group-entry")), type);
+        } else if (entity instanceof CloneSessionEntryCase) {
+            return buildUpdate(convert2ProtoEntry(required(((CloneSessionEntryCase) entity)
+                    .getCloneSessionEntry(), "clone-session-entry")), type);
+        } else {
+            throw new IllegalArgumentException("Invalid entity type");
+        }
+    }
+
+    private Update.Type convert2UpdateType(UpdateType updateType) {
+        if (updateType == null) {
+            throw new IllegalArgumentException("Update type is required");
+        }
+
+        switch (updateType) {
+            case Insert:
+                return Update.Type.INSERT;
+            case Modify:
+                return Update.Type.MODIFY;
+            case Delete:
+                return Update.Type.DELETE;
+            default:
+                throw new IllegalArgumentException("Invalid update type");
+        }
+    }
+
+    private UpdateType convert2UpdateType(Update.Type type) {
+        switch (type) {
+            case INSERT:
+                return UpdateType.Insert;
+            case MODIFY:
+                return UpdateType.Modify;
+            case DELETE:
+                return UpdateType.Delete;
+            default:
+                throw new IllegalArgumentException("Invalid update type");
+        }
     }
 
     public void subscribe(SubscribeInput input) {
@@ -395,9 +822,19 @@ public class Device {
         gNMIClient.subscribe(subscribeRequestBuilder.build());
     }
 
-    private WriteRequest buildWriteRequest(org.opendaylight.p4plugin.p4runtime.proto.CloneSessionEntry cloneSessionEntry,
-                                           org.opendaylight.p4plugin.p4runtime.proto.Update.Type type) {
+    private WriteRequest buildWriteRequest(Iterable<Update> updates) {
         WriteRequest.Builder requestBuilder = WriteRequest.newBuilder();
+        requestBuilder.setDeviceId(deviceId);
+        requestBuilder.addAllUpdates(updates);
+        return requestBuilder.build();
+    }
+
+    private WriteRequest buildWriteRequest(Update update) {
+        return buildWriteRequest(Collections.singletonList(update));
+    }
+
+    private Update buildUpdate(org.opendaylight.p4plugin.p4runtime.proto.CloneSessionEntry cloneSessionEntry,
+                               org.opendaylight.p4plugin.p4runtime.proto.Update.Type type) {
         org.opendaylight.p4plugin.p4runtime.proto.Update.Builder updateBuilder =
                 org.opendaylight.p4plugin.p4runtime.proto.Update.newBuilder();
         org.opendaylight.p4plugin.p4runtime.proto.Entity.Builder entityBuilder =
@@ -409,9 +846,7 @@ public class Device {
         entityBuilder.setPacketReplicationEngineEntry(packetReplicationEngineBuilder.build());
         updateBuilder.setType(type);
         updateBuilder.setEntity(entityBuilder);
-        requestBuilder.setDeviceId(deviceId);
-        requestBuilder.addUpdates(updateBuilder);
-        return requestBuilder.build();
+        return updateBuilder.build();
     }
 
     private org.opendaylight.p4plugin.p4runtime.proto.CloneSessionEntry convert2ProtoEntry(
@@ -419,16 +854,17 @@ public class Device {
         org.opendaylight.p4plugin.p4runtime.proto.CloneSessionEntry.Builder builder =
                 org.opendaylight.p4plugin.p4runtime.proto.CloneSessionEntry.newBuilder();
 
-        builder.setSessionId(cloneSessionEntry.getSessionId().intValue());
-        builder.setClassOfService(cloneSessionEntry.getClassOfService().intValue());
-        builder.setPacketLengthBytes(cloneSessionEntry.getPacketLengthBytes().intValue());
+        builder.setSessionId(required(cloneSessionEntry.getSessionId(), "session-id").intValue());
+        builder.setClassOfService(required(cloneSessionEntry.getClassOfService(), "class-of-service").intValue());
+        builder.setPacketLengthBytes(
+                required(cloneSessionEntry.getPacketLengthBytes(), "packet-length-bytes").intValue());
 
-        cloneSessionEntry.getReplicas().forEach(
+        required(cloneSessionEntry.getReplicas(), "replicas").forEach(
                 replicas -> {
                     org.opendaylight.p4plugin.p4runtime.proto.Replica.Builder replicaBuilder =
                             org.opendaylight.p4plugin.p4runtime.proto.Replica.newBuilder();
-                    replicaBuilder.setEgressPort(replicas.getEgressPort().intValue());
-                    replicaBuilder.setInstance(replicas.getInstance().intValue());
+                    replicaBuilder.setEgressPort(required(replicas.getEgressPort(), "egress-port").intValue());
+                    replicaBuilder.setInstance(required(replicas.getInstance(), "instance").intValue());
                     builder.addReplicas(replicaBuilder.build());
                 }
         );
@@ -436,9 +872,8 @@ public class Device {
         return builder.build();
     }
 
-    private WriteRequest buildWriteRequest(org.opendaylight.p4plugin.p4runtime.proto.MulticastGroupEntry multicastGroupEntry,
-                                           org.opendaylight.p4plugin.p4runtime.proto.Update.Type type) {
-        WriteRequest.Builder requestBuilder = WriteRequest.newBuilder();
+    private Update buildUpdate(org.opendaylight.p4plugin.p4runtime.proto.MulticastGroupEntry multicastGroupEntry,
+                               org.opendaylight.p4plugin.p4runtime.proto.Update.Type type) {
         org.opendaylight.p4plugin.p4runtime.proto.Update.Builder updateBuilder =
                 org.opendaylight.p4plugin.p4runtime.proto.Update.newBuilder();
         org.opendaylight.p4plugin.p4runtime.proto.Entity.Builder entityBuilder =
@@ -450,23 +885,22 @@ public class Device {
         entityBuilder.setPacketReplicationEngineEntry(packetReplicationEngineBuilder.build());
         updateBuilder.setType(type);
         updateBuilder.setEntity(entityBuilder);
-        requestBuilder.setDeviceId(deviceId);
-        requestBuilder.addUpdates(updateBuilder);
-        return requestBuilder.build();
+        return updateBuilder.build();
     }
 
     private org.opendaylight.p4plugin.p4runtime.proto.MulticastGroupEntry convert2ProtoEntry(
             org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.MulticastGroupEntry multicastGroupEntry) {
         org.opendaylight.p4plugin.p4runtime.proto.MulticastGroupEntry.Builder builder =
                 org.opendaylight.p4plugin.p4runtime.proto.MulticastGroupEntry.newBuilder();
-        builder.setMulticastGroupId(multicastGroupEntry.getMulticastGroupId().intValue());
+        builder.setMulticastGroupId(
+                required(multicastGroupEntry.getMulticastGroupId(), "multicast-group-id").intValue());
 
-        multicastGroupEntry.getReplicas().forEach(
+        required(multicastGroupEntry.getReplicas(), "replicas").forEach(
             replicas -> {
                 org.opendaylight.p4plugin.p4runtime.proto.Replica.Builder replicaBuilder =
                         org.opendaylight.p4plugin.p4runtime.proto.Replica.newBuilder();
-                replicaBuilder.setEgressPort(replicas.getEgressPort().intValue());
-                replicaBuilder.setInstance(replicas.getInstance().intValue());
+                replicaBuilder.setEgressPort(required(replicas.getEgressPort(), "egress-port").intValue());
+                replicaBuilder.setInstance(required(replicas.getInstance(), "instance").intValue());
                 builder.addReplicas(replicaBuilder.build());
             }
         );
@@ -474,9 +908,8 @@ public class Device {
         return builder.build();
     }
 
-    private WriteRequest buildWriteRequest(org.opendaylight.p4plugin.p4runtime.proto.TableEntry entry,
-                                           org.opendaylight.p4plugin.p4runtime.proto.Update.Type type) {
-        WriteRequest.Builder requestBuilder = WriteRequest.newBuilder();
+    private Update buildUpdate(org.opendaylight.p4plugin.p4runtime.proto.TableEntry entry,
+                               org.opendaylight.p4plugin.p4runtime.proto.Update.Type type) {
         org.opendaylight.p4plugin.p4runtime.proto.Update.Builder updateBuilder =
                 org.opendaylight.p4plugin.p4runtime.proto.Update.newBuilder();
         org.opendaylight.p4plugin.p4runtime.proto.Entity.Builder entityBuilder =
@@ -485,47 +918,57 @@ public class Device {
         entityBuilder.setTableEntry(entry);
         updateBuilder.setType(type);
         updateBuilder.setEntity(entityBuilder);
-        requestBuilder.setDeviceId(deviceId);
-        requestBuilder.addUpdates(updateBuilder);
-        return requestBuilder.build();
+        return updateBuilder.build();
     }
 
     private org.opendaylight.p4plugin.p4runtime.proto.TableEntry convert2ProtoEntry(
             org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntry tableEntry) {
-        String tableName = tableEntry.getTableName();
-        int tableId = getTableId(tableName);
-        org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder tableEntryBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder();
-        List<org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.Field> fields =
-                tableEntry.getField();
-
-        if (fields != null) {
-            fields.forEach(field -> tableEntryBuilder.addMatch(buildFieldMatch(field, tableName)));
-        }
-
         org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.table.entry.ActionType actionType =
                 tableEntry.getActionType();
-        org.opendaylight.p4plugin.p4runtime.proto.TableAction tableAction = buildTableAction(actionType);
-        tableEntryBuilder.setTableId(tableId);
-        tableEntryBuilder.setAction(tableAction);
-        return tableEntryBuilder.build();
+
+        if (actionType instanceof org.opendaylight.yang.gen.v1.urn
+                .opendaylight.p4plugin.p4runtime.rev170808.table.entry.action.type.DirectAction) {
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.table.entry.action.type.DirectAction
+                    directAction = (org.opendaylight.yang.gen.v1.urn
+                    .opendaylight.p4plugin.p4runtime.rev170808.table.entry.action.type.DirectAction)actionType;
+            return getEntryEncoder(required(tableEntry.getTableName(), "table-name"),
+                    required(directAction.getActionName(), "action-name")).encode(tableEntry, directAction);
+        } else {
+            throw new IllegalArgumentException("Invalid action type");
+        }
     }
 
     private org.opendaylight.p4plugin.p4runtime.proto.TableEntry convert2ProtoEntry(
-            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntryKey tableEntryKey){
-        String tableName = tableEntryKey.getTableName();
-        int tableId = getTableId(tableName);
-        org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder tableEntryBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder();
-        List<org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.Field> fields =
-                tableEntryKey.getField();
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntryKey tableEntryKey) {
+        return getEntryEncoder(required(tableEntryKey.getTableName(), "table-name"), null).encode(tableEntryKey);
+    }
 
-        if (fields != null) {
-            fields.forEach(field -> tableEntryBuilder.addMatch(buildFieldMatch(field, tableName)));
+    private static <T> T required(T value, String leafName) {
+        if (value == null) {
+            throw new IllegalArgumentException(String.format("%s is required.", leafName));
         }
+        return value;
+    }
 
-        tableEntryBuilder.setTableId(tableId);
-        return tableEntryBuilder.build();
+    /**
+     * Encoders are compiled on first use of a (table, action) pair and cached
+     * until the pipeline changes. A null action name gets a key-only encoder.
+     */
+    private EntryEncoder getEntryEncoder(String tableName, String actionName) {
+        Map<String, EntryEncoder> tableEncoders = entryEncoders.computeIfAbsent(tableName,
+                k -> new ConcurrentHashMap<>());
+        return tableEncoders.computeIfAbsent(actionName == null ? "" : actionName,
+                k -> new EntryEncoder(p4InfoIndex.getTable(tableName),
+                        actionName == null ? null : p4InfoIndex.getAction(actionName)));
+    }
+
+    private EntryDecoder getEntryDecoder() {
+        EntryDecoder decoder = entryDecoder;
+        if (decoder == null) {
+            decoder = new EntryDecoder(p4InfoIndex);
+            entryDecoder = decoder;
+        }
+        return decoder;
     }
 
     public String convert2TextEntry(org.opendaylight.p4plugin.p4runtime.proto.TableEntry entry) {
@@ -542,134 +985,6 @@ public class Device {
         return result;
     }
 
-    private org.opendaylight.p4plugin.p4runtime.proto.TableAction buildTableAction(
-            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.table.entry.ActionType actionType) {
-
-        if (actionType instanceof org.opendaylight.yang.gen.v1.urn
-                .opendaylight.p4plugin.p4runtime.rev170808.table.entry.action.type.DirectAction) {
-            return buildDirectTableAction((org.opendaylight.yang.gen.v1.urn
-                    .opendaylight.p4plugin.p4runtime.rev170808.table.entry.action.type.DirectAction)actionType);
-        } else {
-            throw new IllegalArgumentException("Invalid action type");
-        }
-    }
-
-    private org.opendaylight.p4plugin.p4runtime.proto.TableAction buildDirectTableAction(
-            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.table.entry.action.type.DirectAction directAction) {
-        org.opendaylight.p4plugin.p4runtime.proto.TableAction.Builder tableActionBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.TableAction.newBuilder();
-        org.opendaylight.p4plugin.p4runtime.proto.Action.Builder actionBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.Action.newBuilder();
-        List<org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.action.ActionParam> params =
-                directAction.getActionParam();
-        String actionName = directAction.getActionName();
-        actionBuilder.setActionId(getActionId(actionName));
-
-        if (params != null) {
-            params.forEach(p -> {
-                org.opendaylight.p4plugin.p4runtime.proto.Action.Param.Builder paramBuilder =
-                        org.opendaylight.p4plugin.p4runtime.proto.Action.Param.newBuilder();
-                String paramName = p.getParamName();
-                byte[] paramValue = parseTypeValue(p.getParamValue());
-
-                int paramId = getParamId(actionName, paramName);
-                int paramWidth = getParamWidth(actionName, paramName);
-
-                if (paramValue != null) {
-                    paramBuilder.setParamId(paramId);
-                    paramBuilder.setValue(ByteString.copyFrom(paramValue, paramValue.length - paramWidth , paramWidth));
-                }
-
-                actionBuilder.addParams(paramBuilder);
-            });
-        }
-
-        return tableActionBuilder.setAction(actionBuilder).build();
-    }
-
-    private org.opendaylight.p4plugin.p4runtime.proto.FieldMatch buildFieldMatch(
-            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.Field fields,
-            String tableName) {
-        org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.MatchType matchType =
-                fields.getMatchType();
-        String fieldName = fields.getFieldName();
-
-        if (matchType instanceof org.opendaylight.yang.gen.v1.urn
-                .opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Exact) {
-            return buildExactMatchField((org.opendaylight.yang.gen.v1.urn
-                    .opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Exact)matchType,
-                    tableName, fieldName);
-        } else if (matchType instanceof org.opendaylight.yang.gen.v1.urn
-                .opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Lpm) {
-            return buildLpmMatchField((org.opendaylight.yang.gen.v1.urn
-                    .opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Lpm)matchType,
-                    tableName, fieldName);
-        } else if (matchType instanceof org.opendaylight.yang.gen.v1.urn
-                .opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Ternary) {
-            return buildTernaryMatchField((org.opendaylight.yang.gen.v1.urn
-                    .opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Ternary)matchType,
-                    tableName, fieldName);
-        } else {
-            throw new IllegalArgumentException("Invalid match type %s");
-        }
-    }
-
-    private org.opendaylight.p4plugin.p4runtime.proto.FieldMatch buildExactMatchField(
-            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Exact exact,
-            String tableName, String fieldName) {
-        org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.Builder fieldMatchBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.newBuilder();
-        org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.Exact.Builder exactBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.Exact.newBuilder();
-
-        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
-        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
-        byte[] exactValue = parseTypeValue(exact.getExactValue());
-        exactBuilder.setValue(ByteString.copyFrom(exactValue, 0, matchFieldWidth));
-        fieldMatchBuilder.setExact(exactBuilder);
-        fieldMatchBuilder.setFieldId(matchFieldId);
-        return fieldMatchBuilder.build();
-    }
-
-    private org.opendaylight.p4plugin.p4runtime.proto.FieldMatch buildLpmMatchField(
-            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Lpm lpm,
-            String tableName, String fieldName) {
-        org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.Builder fieldMatchBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.newBuilder();
-        org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.LPM.Builder lpmBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.LPM.newBuilder();
-
-        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
-        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
-
-        byte[] lpmValue = parseTypeValue(lpm.getLpmValue());
-        Long prefixLen = lpm.getPrefixLen();
-        lpmBuilder.setValue(ByteString.copyFrom(lpmValue, 0, matchFieldWidth));
-        lpmBuilder.setPrefixLen(prefixLen.intValue());
-        fieldMatchBuilder.setLpm(lpmBuilder);
-        fieldMatchBuilder.setFieldId(matchFieldId);
-        return fieldMatchBuilder.build();
-    }
-
-    private org.opendaylight.p4plugin.p4runtime.proto.FieldMatch buildTernaryMatchField(
-            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Ternary ternary,
-            String tableName, String fieldName) {
-        org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.Builder fieldMatchBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.newBuilder();
-        org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.Ternary.Builder ternaryBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.FieldMatch.Ternary.newBuilder();
-
-        byte[] ternaryValue = parseTypeValue(ternary.getTernaryValue());
-        byte[] mask = parseTypeValue(ternary.getMask());
-        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
-        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
-        ternaryBuilder.setValue(ByteString.copyFrom(ternaryValue, 0, matchFieldWidth));
-        ternaryBuilder.setMask(ByteString.copyFrom(mask, 0, matchFieldWidth));
-        fieldMatchBuilder.setTernary(ternaryBuilder);
-        fieldMatchBuilder.setFieldId(matchFieldId);
-        return fieldMatchBuilder.build();
-    }
-
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -681,6 +996,9 @@ public class Device {
         private Integer port_;
         private String deviceConfigFile_;
         private String p4InfoFile_;
+        private boolean writeCoalescing_;
+        private long writeLingerMillis_;
+        private int writeMaxBatchSize_;
 
         public Builder setIp(String ip) {
             if (ip.matches("\\d+.\\d+.\\d+.\\d+")) {
@@ -715,39 +1033,44 @@ public class Device {
             return this;
         }
 
-        private P4Info parseP4Info(String file) throws IOException {
-            if (file != null) {
-                Reader reader = null;
-                P4Info.Builder info = P4Info.newBuilder();
-                try {
-                    reader = new FileReader(file);
-                    TextFormat.merge(reader, info);
-                    return info.build();
-                } finally {
-                    if (reader != null) {
-                        reader.close();
-                    }
-                }
-            }
-            return null;
+        public Builder setWriteCoalescing(boolean writeCoalescing, long lingerMillis, int maxBatchSize) {
+            this.writeCoalescing_ = writeCoalescing;
+            this.writeLingerMillis_ = lingerMillis;
+            this.writeMaxBatchSize_ = maxBatchSize;
+            return this;
         }
 
-        private ByteString parseDeviceConfig(String file) throws IOException {
-            if (file != null) {
-                InputStream input = new FileInputStream(new File(file));
-                return ByteString.readFrom(input);
+        /**
+         * The P4Info and device config come from the pipeline artifact cache,
+         * shared with the other devices running the same program.
+         */
+        public Device build() throws IOException {
+            PipelineArtifactCache cache = PipelineArtifactCache.getInstance();
+            PipelineArtifactCache.Artifact<P4InfoIndex> p4InfoArtifact = null;
+            PipelineArtifactCache.Artifact<ByteString> deviceConfigArtifact = null;
+            try {
+                p4InfoArtifact = p4InfoFile_ == null ? null : cache.acquireP4Info(p4InfoFile_);
+                deviceConfigArtifact = deviceConfigFile_ == null ? null : cache.acquireDeviceConfig(deviceConfigFile_);
+            } catch (IOException | RuntimeException e) {
+                if (p4InfoArtifact != null) {
+                    cache.release(p4InfoArtifact);
+                }
+                throw e;
             }
-            return null;
-        }
 
-        public Device build() throws IOException {
-            P4Info p4Info;
-            ByteString deviceConfig;
-            p4Info = parseP4Info(p4InfoFile_);
-            deviceConfig = parseDeviceConfig(deviceConfigFile_);
-            P4RuntimeClient p4RuntimeClient = new P4RuntimeClient(ip_, port_, deviceId_, nodeId_, p4Info);
+            P4InfoIndex p4InfoIndex = p4InfoArtifact == null ? null : p4InfoArtifact.getValue();
+            ByteString deviceConfig = deviceConfigArtifact == null ? null : deviceConfigArtifact.getValue();
+            P4RuntimeClient p4RuntimeClient = new P4RuntimeClient(ip_, port_, deviceId_, nodeId_, p4InfoIndex);
             gNMIClient gNMIClient = new gNMIClient(ip_, port_, nodeId_);
-            return new Device(nodeId_, deviceId_, p4RuntimeClient, gNMIClient, p4Info, deviceConfig);
+            Device device = new Device(nodeId_, deviceId_, p4RuntimeClient, gNMIClient, p4InfoIndex, deviceConfig);
+            device.p4InfoArtifact = p4InfoArtifact;
+            device.deviceConfigArtifact = deviceConfigArtifact;
+            if (writeCoalescing_) {
+                DeviceManager deviceManager = DeviceManager.getInstance();
+                device.writeQueue = new WriteQueue(nodeId_, writeLingerMillis_, writeMaxBatchSize_,
+                        device::writeUpdates, deviceManager.getWriteTimer(), deviceManager.getWriteExecutor());
+            }
+            return device;
         }
     }
 
@@ -768,6 +1091,36 @@ public class Device {
         }
     }
 
+    /**
+     * Release everything the device holds: pending queued writes are sent
+     * first, then the stream channel is closed and the clients give their
+     * channels back, and the pipeline artifacts return to the cache.
+     */
+    public void close() {
+        ListenableFuture<?> written = writeQueue == null ? Futures.immediateFuture(null) : writeQueue.close();
+        written.addListener(() -> {
+            if (p4RuntimeClient != null) {
+                p4RuntimeClient.close();
+            }
+            if (gNMIClient != null) {
+                gNMIClient.close();
+            }
+        }, MoreExecutors.directExecutor());
+        releasePipelineArtifacts();
+    }
+
+    private void releasePipelineArtifacts() {
+        PipelineArtifactCache cache = PipelineArtifactCache.getInstance();
+        if (p4InfoArtifact != null) {
+            cache.release(p4InfoArtifact);
+            p4InfoArtifact = null;
+        }
+        if (deviceConfigArtifact != null) {
+            cache.release(deviceConfigArtifact);
+            deviceConfigArtifact = null;
+        }
+    }
+
     public String getNodeId() {
         return  nodeId;
     }
@@ -797,59 +1150,4 @@ public class Device {
             throw new RuntimeException("Device pipeline isn't initialized.");
         }
     }
-
-    private byte[] parseTypeValue(TypedValue typedValue) {
-        String str_val = typedValue.getString();
-        Short uint8_val = typedValue.getUint8();
-        Integer uint16_val = typedValue.getUint16();
-        Long uint32_val = typedValue.getUint32();
-        BigInteger uint64_val = typedValue.getUint64();
-        byte[] binary_val = typedValue.getBinary();
-
-        if (str_val != null) {
-            return str2ByteArray(str_val);
-        } else if (uint8_val != null) {
-            return ByteBuffer.allocate(1).put(uint8_val.byteValue()).array();
-        } else if (uint16_val != null) {
-            return ByteBuffer.allocate(2).putShort(uint16_val.shortValue()).array();
-        } else if (uint32_val != null) {
-            return ByteBuffer.allocate(4).putInt(uint32_val.intValue()).array();
-        } else if (uint64_val != null) {
-            return uint64_val.toByteArray();
-        } else if (binary_val != null) {
-            return binary_val;
-        } else {
-            throw new IllegalArgumentException("Invalid value.");
-        }
-    }
-
-    /**
-     * regular ipv4 address: (1~255).(0~255).(0~255).(0~255);
-     * mac address,e.g. aa:bb:cc:dd:ee:ff,1:2:3:4:5:6;
-     * Integer, e.g. 10,300, decimal;
-     */
-    private byte[] str2ByteArray(String str) {
-        String[] strArray = null;
-        byte[] byteArray = null;
-
-        if (str.matches("([1-9]|[1-9]\\d|1\\d{2}|2[0-4]|25[0-5])\\."
-                + "((\\d|[1-9]\\d|1\\d{2}|2[0-4]\\d|25[0-5])\\.){2}"
-                + "(\\d|[1-9]\\d|1\\d{2}|2[0-4]\\d|25[0-5])")) {
-            strArray = str.split("\\.");
-            byteArray = new byte[strArray.length];
-            for (int i = 0; i < strArray.length; i++) {
-                byteArray[i] = (byte) Integer.parseInt(strArray[i]);
-            }
-        } else if (str.matches("([0-9a-fA-F]{1,2}:){5}[0-9a-fA-F]{1,2}")) {
-            strArray = str.split(":");
-            byteArray = new byte[strArray.length];
-            for (int i = 0; i < strArray.length; i++) {
-                byteArray[i] = (byte) Integer.parseInt(strArray[i], 16);
-            }
-        } else {
-            Integer value = Integer.parseInt(str);
-            byteArray = ByteBuffer.allocate(4).putInt(value).array();
-        }
-        return byteArray;
-    }
 }
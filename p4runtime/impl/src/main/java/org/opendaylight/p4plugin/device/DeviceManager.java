@@ -7,6 +7,7 @@
  */
 package org.opendaylight.p4plugin.device;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,16 +16,90 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
 
 public class DeviceManager {
     private static final Logger LOG = LoggerFactory.getLogger(DeviceManager.class);
     private static DeviceManager singleton = new DeviceManager();
     private ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<>();
+    private volatile boolean writeCoalescing;
+    private volatile long writeLingerMillis;
+    private volatile int writeMaxBatchSize;
+    private ScheduledExecutorService writeTimer;
+    private ExecutorService writeExecutor;
+    private final List<Consumer<String>> removalListeners = new CopyOnWriteArrayList<>();
     private DeviceManager() {}
     public static DeviceManager getInstance() {
         return singleton;
     }
 
+    /**
+     * Write queue settings of the devices added from now on.
+     */
+    public void setWriteCoalescing(boolean writeCoalescing, long lingerMillis, int maxBatchSize) {
+        this.writeCoalescing = writeCoalescing;
+        this.writeLingerMillis = lingerMillis;
+        this.writeMaxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Linger timers of all write queues, on one thread.
+     */
+    synchronized ScheduledExecutorService getWriteTimer() {
+        if (writeTimer == null) {
+            writeTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("p4-write-queue-timer")
+                    .setDaemon(true)
+                    .build());
+        }
+        return writeTimer;
+    }
+
+    /**
+     * Sends the batches of all write queues. Sending doesn't wait for the
+     * response, so a thread per processor is enough whatever the number of devices.
+     */
+    synchronized Executor getWriteExecutor() {
+        if (writeExecutor == null) {
+            writeExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("p4-write-queue-%d")
+                            .setDaemon(true)
+                            .build());
+        }
+        return writeExecutor;
+    }
+
+    /**
+     * Stop the write queue executors; they start again with the next device.
+     */
+    public synchronized void close() {
+        if (writeTimer != null) {
+            writeTimer.shutdown();
+            writeTimer = null;
+        }
+        if (writeExecutor != null) {
+            writeExecutor.shutdown();
+            writeExecutor = null;
+        }
+    }
+
+    /**
+     * Called with the node id of each removed device, to drop the state kept for it.
+     */
+    public void addRemovalListener(Consumer<String> listener) {
+        removalListeners.add(listener);
+    }
+
+    public void removeRemovalListener(Consumer<String> listener) {
+        removalListeners.remove(listener);
+    }
+
     private boolean isNodeIdExist(String nodeId) {
         return devices.keySet().contains(nodeId);
     }
@@ -61,7 +136,8 @@ public class DeviceManager {
                     .setP4InfoFile(p4InfoFile)
                     .setDeviceConfigFile(configFile)
                     .setIp(ip)
-                    .setPort(port);
+                    .setPort(port)
+                    .setWriteCoalescing(writeCoalescing, writeLingerMillis, writeMaxBatchSize);
             Device device = builder.build();
             devices.put(nodeId, device);
             LOG.info("Device add success, nodeId = {}.", device.getNodeId());
@@ -78,8 +154,9 @@ public class DeviceManager {
     public synchronized void removeDevice(String nodeId) {
         Optional<Device> optional = findDevice(nodeId);
         optional.ifPresent((device) -> {
-            device.closeStreamChannel();
+            device.close();
             devices.remove(nodeId);
+            removalListeners.forEach(listener -> listener.accept(nodeId));
             LOG.info("Device removed, nodeId = {}.", device.getNodeId());
         });
     }
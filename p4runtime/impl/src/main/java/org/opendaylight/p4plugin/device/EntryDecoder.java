@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.p4info.P4InfoIndex;
+import org.opendaylight.p4plugin.p4runtime.proto.FieldMatch;
+import org.opendaylight.p4plugin.p4runtime.proto.TableEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TypedValue;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.action.ActionParam;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.action.ActionParamBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.Field;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.FieldBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.ExactBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.LpmBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.TernaryBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.read.table.entry.output.StructuredEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.read.table.entry.output.StructuredEntryBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.table.entry.action.type.DirectActionBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes P4Runtime table entries back into the structured YANG form, with
+ * table, field, action and param names resolved from the P4Info. Values come
+ * back as binary typed values, as wide as the P4Info bitwidth.
+ */
+final class EntryDecoder {
+    private final P4InfoIndex p4InfoIndex;
+
+    EntryDecoder(P4InfoIndex p4InfoIndex) {
+        this.p4InfoIndex = p4InfoIndex;
+    }
+
+    StructuredEntry decode(TableEntry entry) {
+        P4InfoIndex.TableInfo tableInfo = p4InfoIndex.getTable(entry.getTableId());
+        StructuredEntryBuilder builder = new StructuredEntryBuilder();
+        builder.setTableName(tableInfo.getName());
+
+        List<Field> fields = new ArrayList<>(entry.getMatchCount());
+        entry.getMatchList().forEach(match -> fields.add(decodeMatch(tableInfo, match)));
+        builder.setField(fields);
+
+        if (entry.getAction().hasAction()) {
+            org.opendaylight.p4plugin.p4runtime.proto.Action action = entry.getAction().getAction();
+            P4InfoIndex.ActionInfo actionInfo = p4InfoIndex.getAction(action.getActionId());
+            List<ActionParam> params = new ArrayList<>(action.getParamsCount());
+            action.getParamsList().forEach(param -> params.add(new ActionParamBuilder()
+                    .setParamName(actionInfo.getField(param.getParamId()).getName())
+                    .setParamValue(typedValue(param.getValue()))
+                    .build()));
+            builder.setActionType(new DirectActionBuilder()
+                    .setActionName(actionInfo.getName())
+                    .setActionParam(params)
+                    .build());
+        }
+
+        if (entry.getIsDefaultAction()) {
+            builder.setDefaultAction(true);
+        }
+        return builder.build();
+    }
+
+    private Field decodeMatch(P4InfoIndex.TableInfo tableInfo, FieldMatch match) {
+        FieldBuilder builder = new FieldBuilder();
+        builder.setFieldName(tableInfo.getField(match.getFieldId()).getName());
+
+        switch (match.getFieldMatchTypeCase()) {
+            case EXACT:
+                builder.setMatchType(new ExactBuilder()
+                        .setExactValue(typedValue(match.getExact().getValue()))
+                        .build());
+                break;
+            case LPM:
+                builder.setMatchType(new LpmBuilder()
+                        .setLpmValue(typedValue(match.getLpm().getValue()))
+                        .setPrefixLen((long) match.getLpm().getPrefixLen())
+                        .build());
+                break;
+            case TERNARY:
+                builder.setMatchType(new TernaryBuilder()
+                        .setTernaryValue(typedValue(match.getTernary().getValue()))
+                        .setMask(typedValue(match.getTernary().getMask()))
+                        .build());
+                break;
+            default:
+                /* range and other match kinds have no YANG form, only the field name is kept */
+                break;
+        }
+        return builder.build();
+    }
+
+    private static TypedValue typedValue(ByteString value) {
+        return new TypedValue(value.toByteArray());
+    }
+}
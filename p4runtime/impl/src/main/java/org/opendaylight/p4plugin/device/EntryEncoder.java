@@ -0,0 +1,201 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import org.opendaylight.p4plugin.p4info.P4InfoIndex;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.p4runtime.proto.FieldMatch;
+import org.opendaylight.p4plugin.p4runtime.proto.TableAction;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TypedValue;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.action.ActionParam;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.Field;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.MatchType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Exact;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Lpm;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.match.field.field.match.type.Ternary;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.table.entry.action.type.DirectAction;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encoding plan for the entries of one (table, action) pair. Ids, widths and
+ * match kinds are resolved from the P4Info when the plan is compiled, so that
+ * encoding an entry only has to copy each value into its width-checked slot.
+ */
+final class EntryEncoder {
+    private static final int MAX_INTERNED_VALUES = 1024;
+    private final int tableId;
+    private final Map<String, Slot> matchSlots = new HashMap<>();
+    private final int actionId;
+    private final Map<String, Slot> paramSlots = new HashMap<>();
+
+    /**
+     * @param actionInfo null for a plan that only encodes entry keys.
+     */
+    EntryEncoder(P4InfoIndex.TableInfo tableInfo, P4InfoIndex.ActionInfo actionInfo) {
+        this.tableId = tableInfo.getId();
+        tableInfo.getFields().forEach(field -> matchSlots.put(field.getName(), new Slot(field)));
+        this.actionId = actionInfo == null ? 0 : actionInfo.getId();
+        if (actionInfo != null) {
+            actionInfo.getFields().forEach(param -> paramSlots.put(param.getName(), new Slot(param)));
+        }
+    }
+
+    org.opendaylight.p4plugin.p4runtime.proto.TableEntry encode(
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntryKey tableEntryKey) {
+        return encodeKey(tableEntryKey).build();
+    }
+
+    org.opendaylight.p4plugin.p4runtime.proto.TableEntry encode(
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntry tableEntry,
+            DirectAction directAction) {
+        org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder tableEntryBuilder = encodeKey(tableEntry);
+        org.opendaylight.p4plugin.p4runtime.proto.Action.Builder actionBuilder =
+                org.opendaylight.p4plugin.p4runtime.proto.Action.newBuilder();
+        actionBuilder.setActionId(actionId);
+        List<ActionParam> params = directAction.getActionParam();
+
+        if (params != null) {
+            for (ActionParam param : params) {
+                Slot slot = paramSlots.get(param.getParamName());
+                if (slot == null) {
+                    throw new IllegalArgumentException(String.format("Param name %s.", param.getParamName()));
+                }
+                actionBuilder.addParamsBuilder()
+                        .setParamId(slot.id)
+                        .setValue(slot.encode(param.getParamValue()));
+            }
+        }
+
+        tableEntryBuilder.setAction(TableAction.newBuilder().setAction(actionBuilder));
+        return tableEntryBuilder.build();
+    }
+
+    private org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder encodeKey(
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TableEntryKey tableEntryKey) {
+        org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder tableEntryBuilder =
+                org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder();
+        tableEntryBuilder.setTableId(tableId);
+        List<Field> fields = tableEntryKey.getField();
+
+        if (fields != null) {
+            for (Field field : fields) {
+                tableEntryBuilder.addMatch(encodeMatch(field));
+            }
+        }
+        return tableEntryBuilder;
+    }
+
+    private FieldMatch encodeMatch(Field field) {
+        Slot slot = matchSlots.get(field.getFieldName());
+        if (slot == null) {
+            throw new IllegalArgumentException(String.format("Match field name %s.", field.getFieldName()));
+        }
+
+        MatchType matchType = field.getMatchType();
+        FieldMatch.Builder fieldMatchBuilder = FieldMatch.newBuilder();
+        fieldMatchBuilder.setFieldId(slot.id);
+
+        switch (slot.matchType) {
+            case EXACT:
+                Exact exact = slot.checkMatchType(matchType, Exact.class);
+                fieldMatchBuilder.getExactBuilder()
+                        .setValue(slot.encode(exact.getExactValue()));
+                break;
+            case LPM:
+                Lpm lpm = slot.checkMatchType(matchType, Lpm.class);
+                if (lpm.getPrefixLen() == null) {
+                    throw new IllegalArgumentException(String.format("Prefix len of %s is required.", slot.name));
+                }
+                fieldMatchBuilder.getLpmBuilder()
+                        .setValue(slot.encode(lpm.getLpmValue()))
+                        .setPrefixLen(lpm.getPrefixLen().intValue());
+                break;
+            case TERNARY:
+                Ternary ternary = slot.checkMatchType(matchType, Ternary.class);
+                fieldMatchBuilder.getTernaryBuilder()
+                        .setValue(slot.encode(ternary.getTernaryValue()))
+                        .setMask(slot.encode(ternary.getMask()));
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Unsupported match type %s, match field = %s.", slot.matchType, slot.name));
+        }
+        return fieldMatchBuilder.build();
+    }
+
+    /**
+     * A match field or action param with everything needed to encode its value.
+     */
+    private static final class Slot {
+        private final int id;
+        private final String name;
+        private final int bitWidth;
+        private final int byteWidth;
+        private final MatchField.MatchType matchType;
+        private final ConcurrentHashMap<TypedValue, ByteString> interned = new ConcurrentHashMap<>();
+
+        private Slot(P4InfoIndex.FieldInfo fieldInfo) {
+            this.id = fieldInfo.getId();
+            this.name = fieldInfo.getName();
+            this.bitWidth = fieldInfo.getBitWidth();
+            this.byteWidth = fieldInfo.getByteWidth();
+            this.matchType = fieldInfo.getMatchType();
+        }
+
+        private <T extends MatchType> T checkMatchType(MatchType matchType, Class<T> expected) {
+            if (!expected.isInstance(matchType)) {
+                throw new IllegalArgumentException(
+                        String.format("Invalid match type, match field %s requires %s.", name, this.matchType));
+            }
+            return expected.cast(matchType);
+        }
+
+        /**
+         * Parse the value right-aligned into a buffer of the byte width of the
+         * slot, rejecting values with significant bits beyond the P4Info
+         * bitwidth. Non-binary values are interned, since the same MACs, ports
+         * and next hops show up again and again.
+         */
+        private ByteString encode(TypedValue typedValue) {
+            if (typedValue == null) {
+                throw new IllegalArgumentException(String.format("Value of %s is required.", name));
+            }
+            boolean internable = TypedValueParser.isInternable(typedValue);
+            if (internable) {
+                ByteString cached = interned.get(typedValue);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            byte[] actual = new byte[byteWidth];
+            try {
+                TypedValueParser.parse(typedValue, actual);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("%s %s", name, e.getMessage()), e);
+            }
+
+            int spareBits = byteWidth * 8 - bitWidth;
+            if (spareBits > 0 && byteWidth > 0 && ((actual[0] & 0xFF) >>> (8 - spareBits)) != 0) {
+                throw new IllegalArgumentException(String.format("Value of %s exceeds %d bits.", name, bitWidth));
+            }
+
+            ByteString value = UnsafeByteOperations.unsafeWrap(actual);
+            if (internable && interned.size() < MAX_INTERNED_VALUES) {
+                interned.putIfAbsent(typedValue, value);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import org.opendaylight.p4plugin.p4info.P4InfoIndex;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketMetadata;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketOut;
+import org.opendaylight.p4plugin.p4runtime.proto.StreamMessageRequest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packet-out metadata of one device, resolved against the P4Info and
+ * width-normalized once, so that sending a packet only has to attach the
+ * payload. A template is immutable and can be shared by any number of
+ * threads; compile one per distinct set of metadata values, e.g. one per
+ * egress port.
+ */
+public final class PacketOutTemplate {
+    private final String nodeId;
+    private final List<PacketMetadata> metadata;
+
+    private PacketOutTemplate(String nodeId, List<PacketMetadata> metadata) {
+        this.nodeId = nodeId;
+        this.metadata = metadata;
+    }
+
+    static PacketOutTemplate compile(String nodeId, P4InfoIndex.PacketMetadataInfo packetOutInfo,
+                                     Map<String, byte[]> values) {
+        List<PacketMetadata> metadata = new ArrayList<>(values.size());
+        values.forEach((name, value) -> {
+            P4InfoIndex.FieldInfo fieldInfo = packetOutInfo.getField(name);
+            metadata.add(PacketMetadata.newBuilder()
+                    .setMetadataId(fieldInfo.getId())
+                    .setValue(normalize(value, fieldInfo.getByteWidth()))
+                    .build());
+        });
+        return new PacketOutTemplate(nodeId, Collections.unmodifiableList(metadata));
+    }
+
+    /**
+     * Right-align the value in a buffer of the metadata byte width; longer
+     * values keep their leading bytes, as before.
+     */
+    private static ByteString normalize(byte[] value, int byteWidth) {
+        byte[] actual = new byte[byteWidth];
+        if (value.length < byteWidth) {
+            System.arraycopy(value, 0, actual, byteWidth - value.length, value.length);
+        } else {
+            System.arraycopy(value, 0, actual, 0, byteWidth);
+        }
+        return UnsafeByteOperations.unsafeWrap(actual);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * A packet made of this template and the given payload. The payload is
+     * not copied, so it must not be modified until the packet is sent.
+     */
+    public Packet packet(byte[] payload) {
+        return packet(UnsafeByteOperations.unsafeWrap(payload));
+    }
+
+    /**
+     * A packet made of this template and the remaining bytes of the buffer.
+     * The buffer is not copied, so its content must not be modified until
+     * the packet is sent.
+     */
+    public Packet packet(ByteBuffer payload) {
+        return packet(UnsafeByteOperations.unsafeWrap(payload.slice()));
+    }
+
+    private Packet packet(ByteString payload) {
+        return new Packet(nodeId, StreamMessageRequest.newBuilder()
+                .setPacket(PacketOut.newBuilder()
+                        .setPayload(payload)
+                        .addAllMetadata(metadata))
+                .build());
+    }
+
+    /**
+     * A packet ready to be written to the stream channel of its device.
+     */
+    public static final class Packet {
+        private final String nodeId;
+        private final StreamMessageRequest request;
+
+        private Packet(String nodeId, StreamMessageRequest request) {
+            this.nodeId = nodeId;
+            this.request = request;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        StreamMessageRequest getRequest() {
+            return request;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.TextFormat;
+import com.google.protobuf.UnsafeByteOperations;
+import org.opendaylight.p4plugin.p4info.P4InfoIndex;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed P4Infos and device configs keyed by the SHA-256 of the file content,
+ * so that devices running the same program share one immutable P4InfoIndex
+ * and one copy of the device config, whatever file they were loaded from.
+ * Artifacts are reference counted and evicted when the last device using
+ * them releases them.
+ *
+ * P4Infos are read in binary form when the file is named .pb or .bin or
+ * doesn't look like text, and in text form otherwise. Device configs of at
+ * least MAP_THRESHOLD bytes are memory-mapped rather than copied onto the
+ * heap, so they must not be rewritten in place while in use.
+ */
+public final class PipelineArtifactCache {
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineArtifactCache.class);
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    private static final int SNIFF_LENGTH = 256;
+    private static PipelineArtifactCache singleton = new PipelineArtifactCache();
+    private final ConcurrentHashMap<String, Artifact<P4InfoIndex>> p4Infos = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Artifact<ByteString>> deviceConfigs = new ConcurrentHashMap<>();
+
+    private PipelineArtifactCache() {}
+
+    public static PipelineArtifactCache getInstance() {
+        return singleton;
+    }
+
+    Artifact<P4InfoIndex> acquireP4Info(String file) throws IOException {
+        ByteString content = readFile(Paths.get(file), false);
+        return acquire(p4Infos, content, () -> {
+            if (isBinary(file, content)) {
+                return new P4InfoIndex(P4Info.parseFrom(content));
+            }
+            P4Info.Builder info = P4Info.newBuilder();
+            TextFormat.merge(content.toString(StandardCharsets.UTF_8), info);
+            return new P4InfoIndex(info.build());
+        });
+    }
+
+    Artifact<ByteString> acquireDeviceConfig(String file) throws IOException {
+        ByteString content = readFile(Paths.get(file), true);
+        return acquire(deviceConfigs, content, () -> content);
+    }
+
+    <T> void release(Artifact<T> artifact) {
+        artifact.owner.computeIfPresent(artifact.hash, (k, v) -> {
+            if (--v.refCount > 0) {
+                return v;
+            }
+            LOG.info("Pipeline artifact evicted, hash = {}.", k);
+            return null;
+        });
+    }
+
+    public int getP4InfoCount() {
+        return p4Infos.size();
+    }
+
+    public int getDeviceConfigCount() {
+        return deviceConfigs.size();
+    }
+
+    private static <T> Artifact<T> acquire(ConcurrentHashMap<String, Artifact<T>> artifacts,
+                                           ByteString content, Loader<T> loader) throws IOException {
+        String hash = hash(content);
+        try {
+            return artifacts.compute(hash, (k, v) -> {
+                if (v == null) {
+                    try {
+                        v = new Artifact<>(artifacts, k, loader.load());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                v.refCount++;
+                return v;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static ByteString readFile(Path path, boolean mapLarge) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (mapLarge && size >= MAP_THRESHOLD) {
+                /* the mapping stays valid after the channel is closed */
+                return UnsafeByteOperations.unsafeWrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+        return UnsafeByteOperations.unsafeWrap(Files.readAllBytes(path));
+    }
+
+    /**
+     * Text format never has control characters other than whitespace, while
+     * a binary P4Info has length prefixes and tags among its first bytes.
+     */
+    private static boolean isBinary(String file, ByteString content) {
+        String name = file.toLowerCase();
+        if (name.endsWith(".pb") || name.endsWith(".bin")) {
+            return true;
+        }
+        if (name.endsWith(".txt")) {
+            return false;
+        }
+
+        int length = Math.min(content.size(), SNIFF_LENGTH);
+        for (int i = 0; i < length; i++) {
+            int b = content.byteAt(i) & 0xFF;
+            if (b < 0x09 || (b > 0x0D && b < 0x20) || b == 0x7F) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String hash(ByteString content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.asReadOnlyByteBuffer());
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest()) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    /**
+     * A shared artifact, valid until released.
+     */
+    static final class Artifact<T> {
+        private final ConcurrentHashMap<String, Artifact<T>> owner;
+        private final String hash;
+        private final T value;
+        private int refCount;
+
+        private Artifact(ConcurrentHashMap<String, Artifact<T>> owner, String hash, T value) {
+            this.owner = owner;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        T getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.UpdateType;
+
+import java.util.List;
+
+/**
+ * Outcome of a reconciliation: how many entries each kind of update
+ * changed, how many were already right, and the updates the device refused.
+ */
+public final class ReconcileResult {
+    private final int inserted;
+    private final int modified;
+    private final int deleted;
+    private final int unchanged;
+    private final List<Failure> failures;
+
+    ReconcileResult(int inserted, int modified, int deleted, int unchanged, List<Failure> failures) {
+        this.inserted = inserted;
+        this.modified = modified;
+        this.deleted = deleted;
+        this.unchanged = unchanged;
+        this.failures = failures;
+    }
+
+    public int getInserted() {
+        return inserted;
+    }
+
+    public int getModified() {
+        return modified;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("inserted = %d, modified = %d, deleted = %d, unchanged = %d, failed = %d",
+                inserted, modified, deleted, unchanged, failures.size());
+    }
+
+    public static final class Failure {
+        private final UpdateType updateType;
+        private final String entry;
+        private final int code;
+        private final String message;
+
+        Failure(UpdateType updateType, String entry, int code, String message) {
+            this.updateType = updateType;
+            this.entry = entry;
+            this.code = code;
+            this.message = message;
+        }
+
+        public UpdateType getUpdateType() {
+            return updateType;
+        }
+
+        /**
+         * The entry of the refused update, as text.
+         */
+        public String getEntry() {
+            return entry;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
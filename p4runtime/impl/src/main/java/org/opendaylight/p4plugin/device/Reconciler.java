@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.p4runtime.proto.Entity;
+import org.opendaylight.p4plugin.p4runtime.proto.TableEntry;
+import org.opendaylight.p4plugin.p4runtime.proto.Update;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Desired state of some tables of a device, diffed against what the device
+ * holds. Entries are matched by canonical match key, so the diff only has
+ * the entries that are missing, different or unwanted. Tables that are not
+ * in scope are left alone.
+ */
+final class Reconciler {
+    private final Map<Integer, Map<ByteString, TableEntry>> desired = new HashMap<>();
+    private final Map<Integer, List<TableEntry>> actual = new HashMap<>();
+    private int unchanged;
+
+    /**
+     * Ids of the tables in scope.
+     */
+    Set<Integer> getTableIds() {
+        return desired.keySet();
+    }
+
+    /**
+     * Bring a table in scope, with no entry unless some are added.
+     */
+    void addTable(int tableId) {
+        desired.computeIfAbsent(tableId, k -> new LinkedHashMap<>());
+    }
+
+    void addDesired(TableEntry entry) {
+        ByteString key = TableShadow.matchKey(entry);
+        if (desired.computeIfAbsent(entry.getTableId(), k -> new LinkedHashMap<>()).put(key, entry) != null) {
+            throw new IllegalArgumentException(String.format("Duplicate entry in table %d: %s.",
+                    entry.getTableId(), entry.getMatchList()));
+        }
+    }
+
+    /**
+     * Record an entry read from the device; entries of tables out of scope are dropped.
+     */
+    void addActual(TableEntry entry) {
+        if (desired.containsKey(entry.getTableId())) {
+            actual.computeIfAbsent(entry.getTableId(), k -> new ArrayList<>()).add(entry);
+        }
+    }
+
+    /**
+     * The entries read from the device, per table in scope.
+     */
+    Map<Integer, Collection<TableEntry>> getActual() {
+        Map<Integer, Collection<TableEntry>> result = new HashMap<>();
+        desired.keySet().forEach(tableId -> result.put(tableId, actual.getOrDefault(tableId, new ArrayList<>())));
+        return result;
+    }
+
+    /**
+     * The updates that turn the actual state into the desired one: deletes
+     * first, to free table space, then modifies and inserts. A default action
+     * can't be inserted or deleted, it is always modified, and only when the
+     * desired state has one.
+     */
+    List<Update> diff() {
+        List<Update> deletes = new ArrayList<>();
+        List<Update> modifies = new ArrayList<>();
+        List<Update> inserts = new ArrayList<>();
+        unchanged = 0;
+
+        desired.forEach((tableId, desiredEntries) -> {
+            Map<ByteString, TableEntry> remaining = new HashMap<>(desiredEntries);
+            for (TableEntry entry : actual.getOrDefault(tableId, new ArrayList<>())) {
+                TableEntry wanted = remaining.remove(TableShadow.matchKey(entry));
+                if (wanted == null) {
+                    if (!entry.getIsDefaultAction()) {
+                        deletes.add(buildUpdate(entry, Update.Type.DELETE));
+                    }
+                } else if (isSame(wanted, entry)) {
+                    unchanged++;
+                } else {
+                    modifies.add(buildUpdate(wanted, Update.Type.MODIFY));
+                }
+            }
+            remaining.values().forEach(entry -> {
+                if (entry.getIsDefaultAction()) {
+                    modifies.add(buildUpdate(entry, Update.Type.MODIFY));
+                } else {
+                    inserts.add(buildUpdate(entry, Update.Type.INSERT));
+                }
+            });
+        });
+
+        List<Update> updates = new ArrayList<>(deletes.size() + modifies.size() + inserts.size());
+        updates.addAll(deletes);
+        updates.addAll(modifies);
+        updates.addAll(inserts);
+        return updates;
+    }
+
+    /**
+     * Number of desired entries the device already had, as of the last diff.
+     */
+    int getUnchanged() {
+        return unchanged;
+    }
+
+    private static boolean isSame(TableEntry wanted, TableEntry entry) {
+        return wanted.getAction().equals(entry.getAction())
+                && wanted.getControllerMetadata() == entry.getControllerMetadata();
+    }
+
+    private static Update buildUpdate(TableEntry entry, Update.Type type) {
+        return Update.newBuilder()
+                .setType(type)
+                .setEntity(Entity.newBuilder().setTableEntry(entry))
+                .build();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.read.table.entry.output.StructuredEntry;
+
+import java.util.List;
+
+/**
+ * One page of a table read, in text or structured form depending on the
+ * requested format; the other list is empty.
+ */
+public final class TableEntryPage {
+    private final List<String> entries;
+    private final List<StructuredEntry> structuredEntries;
+    private final String nextCursor;
+
+    TableEntryPage(List<String> entries, List<StructuredEntry> structuredEntries, String nextCursor) {
+        this.entries = entries;
+        this.structuredEntries = structuredEntries;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<String> getEntries() {
+        return entries;
+    }
+
+    public List<StructuredEntry> getStructuredEntries() {
+        return structuredEntries;
+    }
+
+    /**
+     * Null on the last page.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.TextFormat;
+import org.opendaylight.p4plugin.p4runtime.proto.FieldMatch;
+import org.opendaylight.p4plugin.p4runtime.proto.TableEntry;
+import org.opendaylight.p4plugin.p4runtime.proto.Update;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.read.table.entry.output.StructuredEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Controller side copy of the table entries of one device, made of every
+ * table entry update the device has accepted. Entries are indexed by table id
+ * and canonical match key, so a later modify or delete of the same entry
+ * replaces or removes it whatever order its match fields came in. Each table
+ * is sorted by match key, which gives pages a stable order to resume from.
+ * The shadow only covers the tables it knows all the entries of: those
+ * resynced from a device read, and every table once the device is known to
+ * be empty, as they are then written through the shadow. Other tables must
+ * be read from the device.
+ */
+final class TableShadow {
+    private static final Comparator<ByteString> KEY_ORDER = TableShadow::compareKeys;
+    private final Map<Integer, NavigableMap<ByteString, ShadowEntry>> tables = new ConcurrentHashMap<>();
+    private final Set<Integer> coveredTables = ConcurrentHashMap.newKeySet();
+    private volatile boolean coversAll;
+
+    /**
+     * Record an update accepted by the device; non table entry updates are ignored.
+     */
+    void apply(Update update) {
+        if (!update.getEntity().hasTableEntry()) {
+            return;
+        }
+
+        TableEntry entry = update.getEntity().getTableEntry();
+        switch (update.getType()) {
+            case INSERT:
+            case MODIFY:
+                ByteString key = matchKey(entry);
+                getTable(entry.getTableId()).put(key, new ShadowEntry(key, entry));
+                break;
+            case DELETE:
+                getTable(entry.getTableId()).remove(matchKey(entry));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Replace the entries of a table with what the device reported.
+     */
+    void resync(int tableId, Collection<TableEntry> entries) {
+        NavigableMap<ByteString, ShadowEntry> table = new ConcurrentSkipListMap<>(KEY_ORDER);
+        entries.forEach(entry -> {
+            ByteString key = matchKey(entry);
+            table.put(key, new ShadowEntry(key, entry));
+        });
+        tables.put(tableId, table);
+        coveredTables.add(tableId);
+    }
+
+    /**
+     * Replace every table with what a wildcard read of the device reported;
+     * a table missing from tableEntries is empty.
+     */
+    void resyncAll(Map<Integer, ? extends Collection<TableEntry>> tableEntries) {
+        coversAll = false;
+        tables.clear();
+        coveredTables.clear();
+        tableEntries.forEach(this::resync);
+        coversAll = true;
+    }
+
+    boolean isCovered(int tableId) {
+        return coversAll || coveredTables.contains(tableId);
+    }
+
+    /**
+     * Up to pageSize entries following the one with match key after, or from
+     * the start of the table if after is null.
+     */
+    List<ShadowEntry> getEntries(int tableId, ByteString after, int pageSize) {
+        NavigableMap<ByteString, ShadowEntry> table = tables.get(tableId);
+        if (table == null) {
+            return Collections.emptyList();
+        }
+
+        Collection<ShadowEntry> entries = after == null ? table.values() : table.tailMap(after, false).values();
+        List<ShadowEntry> result = new ArrayList<>(Math.min(pageSize, table.size()));
+        for (ShadowEntry entry : entries) {
+            if (result.size() == pageSize) {
+                break;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Nothing is known of the device, every table must be resynced.
+     */
+    void invalidate() {
+        coversAll = false;
+        tables.clear();
+        coveredTables.clear();
+    }
+
+    /**
+     * The device was emptied, by a pipeline commit.
+     */
+    void clear() {
+        tables.clear();
+        coveredTables.clear();
+        coversAll = true;
+    }
+
+    private NavigableMap<ByteString, ShadowEntry> getTable(int tableId) {
+        return tables.computeIfAbsent(tableId, k -> new ConcurrentSkipListMap<>(KEY_ORDER));
+    }
+
+    private static int compareKeys(ByteString left, ByteString right) {
+        int length = Math.min(left.size(), right.size());
+        for (int i = 0; i < length; i++) {
+            int diff = (left.byteAt(i) & 0xFF) - (right.byteAt(i) & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return left.size() - right.size();
+    }
+
+    /**
+     * Match fields sorted by field id, plus priority and default action flag,
+     * which together identify an entry within its table. Values are already
+     * width-normalized by the encoder.
+     */
+    static ByteString matchKey(TableEntry entry) {
+        List<FieldMatch> matches = new ArrayList<>(entry.getMatchList());
+        matches.sort(Comparator.comparingInt(FieldMatch::getFieldId));
+        return TableEntry.newBuilder()
+                .addAllMatch(matches)
+                .setPriority(entry.getPriority())
+                .setIsDefaultAction(entry.getIsDefaultAction())
+                .build()
+                .toByteString();
+    }
+
+    /**
+     * A shadowed entry, with its text and structured forms made on first use.
+     */
+    static final class ShadowEntry {
+        private final ByteString matchKey;
+        private final TableEntry entry;
+        private volatile String text;
+        private volatile StructuredEntry structured;
+
+        private ShadowEntry(ByteString matchKey, TableEntry entry) {
+            this.matchKey = matchKey;
+            this.entry = entry;
+        }
+
+        ByteString getMatchKey() {
+            return matchKey;
+        }
+
+        TableEntry getEntry() {
+            return entry;
+        }
+
+        String getText() {
+            String result = text;
+            if (result == null) {
+                result = TextFormat.printToString(entry);
+                text = result;
+            }
+            return result;
+        }
+
+        StructuredEntry getStructured(EntryDecoder decoder) {
+            StructuredEntry result = structured;
+            if (result == null) {
+                result = decoder.decode(entry);
+                structured = result;
+            }
+            return result;
+        }
+    }
+}
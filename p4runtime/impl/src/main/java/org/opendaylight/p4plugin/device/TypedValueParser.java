@@ -0,0 +1,334 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.TypedValue;
+
+import java.math.BigInteger;
+
+/**
+ * Hand-written parsers for typed values. Every value is written straight into
+ * a zero-filled destination buffer, right-aligned; a value that does not fit
+ * the buffer is rejected. String values may be:
+ * ipv4 address, e.g. 10.0.0.1;
+ * ipv6 address, e.g. 2001:db8::1;
+ * mac address, e.g. aa:bb:cc:dd:ee:ff, 1:2:3:4:5:6;
+ * hex integer, e.g. 0x1ff;
+ * decimal integer, e.g. 10, 300.
+ */
+final class TypedValueParser {
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private TypedValueParser() {}
+
+    static void parse(TypedValue typedValue, byte[] dst) {
+        String str_val = typedValue.getString();
+        Short uint8_val = typedValue.getUint8();
+        Integer uint16_val = typedValue.getUint16();
+        Long uint32_val = typedValue.getUint32();
+        BigInteger uint64_val = typedValue.getUint64();
+
+        if (str_val != null) {
+            parseString(str_val, dst);
+        } else if (uint8_val != null) {
+            writeLong(uint8_val, dst);
+        } else if (uint16_val != null) {
+            writeLong(uint16_val, dst);
+        } else if (uint32_val != null) {
+            writeLong(uint32_val, dst);
+        } else if (uint64_val != null) {
+            writeBytes(uint64_val.toByteArray(), dst);
+        } else {
+            byte[] binary_val = typedValue.getBinary();
+            if (binary_val == null) {
+                throw new IllegalArgumentException("Invalid value.");
+            }
+            writeBytes(binary_val, dst);
+        }
+    }
+
+    /**
+     * Whether parse() depends only on the value itself, so that its result can
+     * be shared between entries. Binary values are left out.
+     */
+    static boolean isInternable(TypedValue typedValue) {
+        return typedValue.getString() != null
+                || typedValue.getUint8() != null
+                || typedValue.getUint16() != null
+                || typedValue.getUint32() != null
+                || typedValue.getUint64() != null;
+    }
+
+    static void parseString(String str, byte[] dst) {
+        int length = str.length();
+        if (length == 0) {
+            throw invalid(str);
+        }
+
+        if (length > 2 && str.charAt(0) == '0' && (str.charAt(1) == 'x' || str.charAt(1) == 'X')) {
+            parseHex(str, dst);
+        } else if (str.indexOf(':') >= 0) {
+            if (isMac(str)) {
+                parseMac(str, dst);
+            } else {
+                parseIpv6(str, dst);
+            }
+        } else if (str.indexOf('.') >= 0) {
+            parseIpv4(str, dst);
+        } else {
+            parseDecimal(str, dst);
+        }
+    }
+
+    private static void parseIpv4(String str, byte[] dst) {
+        int octet = 0;
+        int digits = 0;
+        int index = 0;
+
+        for (int i = 0, length = str.length(); i <= length; i++) {
+            char c = i < length ? str.charAt(i) : '.';
+            if (c == '.') {
+                if (digits == 0 || index > 3) {
+                    throw invalid(str);
+                }
+                putByte(dst, 3 - index, octet, str);
+                index++;
+                octet = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                octet = octet * 10 + (c - '0');
+                digits++;
+                if (octet > 255) {
+                    throw invalid(str);
+                }
+            } else {
+                throw invalid(str);
+            }
+        }
+
+        if (index != 4) {
+            throw invalid(str);
+        }
+    }
+
+    private static boolean isMac(String str) {
+        int groups = 1;
+        int digits = 0;
+
+        for (int i = 0, length = str.length(); i < length; i++) {
+            char c = str.charAt(i);
+            if (c == ':') {
+                if (digits == 0) {
+                    return false;
+                }
+                groups++;
+                digits = 0;
+            } else if (hexDigit(c) >= 0 && digits < 2) {
+                digits++;
+            } else {
+                return false;
+            }
+        }
+        return groups == 6 && digits > 0;
+    }
+
+    private static void parseMac(String str, byte[] dst) {
+        int value = 0;
+        int index = 0;
+
+        for (int i = 0, length = str.length(); i <= length; i++) {
+            char c = i < length ? str.charAt(i) : ':';
+            if (c == ':') {
+                putByte(dst, 5 - index, value, str);
+                index++;
+                value = 0;
+            } else {
+                value = (value << 4) | hexDigit(c);
+            }
+        }
+    }
+
+    private static void parseIpv6(String str, byte[] dst) {
+        int length = str.length();
+        int gap = str.indexOf("::");
+
+        if (gap < 0) {
+            if (countGroups(str, 0, length) != 8) {
+                throw invalid(str);
+            }
+            writeGroups(str, 0, length, 0, dst);
+            return;
+        }
+
+        if (str.indexOf("::", gap + 1) >= 0) {
+            throw invalid(str);
+        }
+
+        int head = countGroups(str, 0, gap);
+        int tail = countGroups(str, gap + 2, length);
+        if (head + tail > 7) {
+            throw invalid(str);
+        }
+        writeGroups(str, 0, gap, 0, dst);
+        writeGroups(str, gap + 2, length, 8 - tail, dst);
+    }
+
+    private static int countGroups(String str, int from, int to) {
+        if (from == to) {
+            return 0;
+        }
+
+        int groups = 1;
+        for (int i = from; i < to; i++) {
+            if (str.charAt(i) == ':') {
+                groups++;
+            }
+        }
+        return groups;
+    }
+
+    private static void writeGroups(String str, int from, int to, int firstGroup, byte[] dst) {
+        if (from == to) {
+            return;
+        }
+
+        int group = firstGroup;
+        int value = 0;
+        int digits = 0;
+
+        for (int i = from; i <= to; i++) {
+            char c = i < to ? str.charAt(i) : ':';
+            if (c == ':') {
+                if (digits == 0) {
+                    throw invalid(str);
+                }
+                putByte(dst, 15 - group * 2, value >>> 8, str);
+                putByte(dst, 14 - group * 2, value & 0xFF, str);
+                group++;
+                value = 0;
+                digits = 0;
+            } else {
+                int nibble = hexDigit(c);
+                if (nibble < 0 || digits == 4) {
+                    throw invalid(str);
+                }
+                value = (value << 4) | nibble;
+                digits++;
+            }
+        }
+    }
+
+    private static void parseHex(String str, byte[] dst) {
+        for (int i = str.length() - 1, nibbleIndex = 0; i >= 2; i--, nibbleIndex++) {
+            int nibble = hexDigit(str.charAt(i));
+            if (nibble < 0) {
+                throw invalid(str);
+            }
+
+            int position = dst.length - 1 - nibbleIndex / 2;
+            if (position < 0) {
+                if (nibble != 0) {
+                    throw overflow(str, dst);
+                }
+            } else {
+                dst[position] |= (byte) (nibble << ((nibbleIndex % 2) * 4));
+            }
+        }
+    }
+
+    private static void parseDecimal(String str, byte[] dst) {
+        int length = str.length();
+        if (length <= MAX_LONG_DIGITS) {
+            long value = 0;
+            for (int i = 0; i < length; i++) {
+                value = value * 10 + decimalDigit(str, i);
+            }
+            writeLong(value, dst);
+            return;
+        }
+
+        for (int i = 0; i < length; i++) {
+            int carry = decimalDigit(str, i);
+            for (int position = dst.length - 1; position >= 0; position--) {
+                int v = (dst[position] & 0xFF) * 10 + carry;
+                dst[position] = (byte) v;
+                carry = v >>> 8;
+            }
+            if (carry != 0) {
+                throw overflow(str, dst);
+            }
+        }
+    }
+
+    private static int decimalDigit(String str, int index) {
+        char c = str.charAt(index);
+        if (c < '0' || c > '9') {
+            throw invalid(str);
+        }
+        return c - '0';
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Write one byte counted from the right end of dst.
+     */
+    private static void putByte(byte[] dst, int indexFromRight, int value, String str) {
+        int position = dst.length - 1 - indexFromRight;
+        if (position < 0) {
+            if (value != 0) {
+                throw overflow(str, dst);
+            }
+        } else {
+            dst[position] = (byte) value;
+        }
+    }
+
+    private static void writeLong(long value, byte[] dst) {
+        long remain = value;
+        for (int position = dst.length - 1; position >= 0; position--) {
+            dst[position] = (byte) remain;
+            remain >>>= 8;
+        }
+        if (remain != 0) {
+            throw overflow(Long.toString(value), dst);
+        }
+    }
+
+    private static void writeBytes(byte[] value, byte[] dst) {
+        int offset = value.length - dst.length;
+        for (int i = 0; i < offset; i++) {
+            if (value[i] != 0) {
+                throw new IllegalArgumentException(String.format("Value exceeds %d bytes.", dst.length));
+            }
+        }
+
+        if (offset >= 0) {
+            System.arraycopy(value, offset, dst, 0, dst.length);
+        } else {
+            System.arraycopy(value, 0, dst, -offset, value.length);
+        }
+    }
+
+    private static IllegalArgumentException invalid(String str) {
+        return new IllegalArgumentException(String.format("Invalid value %s.", str));
+    }
+
+    private static IllegalArgumentException overflow(String str, byte[] dst) {
+        return new IllegalArgumentException(String.format("Value %s exceeds %d bytes.", str, dst.length));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.rpc.Code;
+import io.grpc.StatusRuntimeException;
+import io.grpc.protobuf.StatusProto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of one update of a batch write; code is a canonical gRPC code.
+ */
+public final class UpdateResult {
+    private final int index;
+    private final int code;
+    private final String message;
+
+    UpdateResult(int index, int code, String message) {
+        this.index = index;
+        this.code = code;
+        this.message = message;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSuccess() {
+        return code == Code.OK_VALUE;
+    }
+
+    /**
+     * A failed write carries one p4.v1.Error per update in its status details,
+     * in request order. If the details are missing or don't line up with the
+     * updates, every update gets the overall status.
+     */
+    static List<UpdateResult> fromWriteError(StatusRuntimeException e, int count) {
+        List<UpdateResult> results = new ArrayList<>(count);
+        com.google.rpc.Status status = StatusProto.fromThrowable(e);
+
+        if (status != null && status.getDetailsCount() == count) {
+            try {
+                for (int i = 0; i < count; i++) {
+                    Any detail = status.getDetails(i);
+                    org.opendaylight.p4plugin.p4runtime.proto.Error error =
+                            detail.unpack(org.opendaylight.p4plugin.p4runtime.proto.Error.class);
+                    results.add(new UpdateResult(i, error.getCanonicalCode(), error.getMessage()));
+                }
+                return results;
+            } catch (InvalidProtocolBufferException ignored) {
+                results.clear();
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            results.add(new UpdateResult(i, e.getStatus().getCode().value(), e.getStatus().getDescription()));
+        }
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d: %d %s]", index, code, message);
+    }
+}
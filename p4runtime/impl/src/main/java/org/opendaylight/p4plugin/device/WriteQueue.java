@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.device;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.opendaylight.p4plugin.p4runtime.proto.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Coalesces single updates of one device into WriteRequests. A batch is sent
+ * when it reaches maxBatchSize updates or when its first update has waited
+ * for the linger time, whichever comes first. Batches are written one at a
+ * time, in submission order: a batch is sent once the previous one has been
+ * answered, without holding a thread in between. Every caller gets the result
+ * of its own update. Linger timers and the sending of batches run on
+ * executors shared by all write queues, so queues cost no threads of their own.
+ */
+public final class WriteQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteQueue.class);
+    private final String nodeId;
+    private final long lingerNanos;
+    private final int maxBatchSize;
+    private final Function<List<Update>, ListenableFuture<List<UpdateResult>>> writer;
+    private final ScheduledExecutorService timer;
+    private final Executor executor;
+    private final Metrics metrics = new Metrics();
+    private List<PendingUpdate> pending = new ArrayList<>();
+    private long firstPendingNanos;
+    private ScheduledFuture<?> lingerTimer;
+    private ListenableFuture<?> lastWrite = Futures.immediateFuture(null);
+    private boolean closed;
+
+    WriteQueue(String nodeId, long lingerMillis, int maxBatchSize,
+               Function<List<Update>, ListenableFuture<List<UpdateResult>>> writer,
+               ScheduledExecutorService timer, Executor executor) {
+        if (lingerMillis < 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Invalid write queue linger time or batch size.");
+        }
+        this.nodeId = nodeId;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.maxBatchSize = maxBatchSize;
+        this.writer = writer;
+        this.timer = timer;
+        this.executor = executor;
+    }
+
+    ListenableFuture<UpdateResult> submit(Update update) {
+        SettableFuture<UpdateResult> future = SettableFuture.create();
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException(String.format("Write queue of %s is closed.", nodeId));
+            }
+
+            pending.add(new PendingUpdate(update, future));
+            if (pending.size() == 1) {
+                firstPendingNanos = System.nanoTime();
+            }
+
+            if (pending.size() >= maxBatchSize) {
+                dispatch();
+            } else if (pending.size() == 1) {
+                lingerTimer = timer.schedule(this::lingerExpired, lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        return future;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Send what is pending and stop accepting updates. The returned future
+     * completes once the last batch is answered.
+     */
+    ListenableFuture<?> close() {
+        ListenableFuture<?> written;
+        synchronized (this) {
+            if (closed) {
+                return lastWrite;
+            }
+            closed = true;
+            if (!pending.isEmpty()) {
+                dispatch();
+            }
+            written = lastWrite;
+        }
+        LOG.info("Write queue closed, node = {}, {}.", nodeId, metrics);
+        return written;
+    }
+
+    private synchronized void lingerExpired() {
+        if (!pending.isEmpty()) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Queue the pending updates as one batch behind the last one. Must be
+     * called holding the lock.
+     */
+    private void dispatch() {
+        if (lingerTimer != null) {
+            lingerTimer.cancel(false);
+            lingerTimer = null;
+        }
+
+        List<PendingUpdate> batch = pending;
+        long waitedNanos = System.nanoTime() - firstPendingNanos;
+        pending = new ArrayList<>();
+        lastWrite = Futures.transformAsync(lastWrite, v -> write(batch, waitedNanos), executor);
+    }
+
+    /**
+     * The returned future always succeeds once the batch is answered, a
+     * failure only fails the futures of the batch.
+     */
+    private ListenableFuture<?> write(List<PendingUpdate> batch, long waitedNanos) {
+        metrics.record(batch.size(), waitedNanos);
+        List<Update> updates = new ArrayList<>(batch.size());
+        batch.forEach(p -> updates.add(p.update));
+
+        ListenableFuture<List<UpdateResult>> written;
+        try {
+            written = writer.apply(updates);
+        } catch (RuntimeException e) {
+            written = Futures.immediateFailedFuture(e);
+        }
+
+        SettableFuture<Void> done = SettableFuture.create();
+        Futures.addCallback(written, new FutureCallback<List<UpdateResult>>() {
+            @Override
+            public void onSuccess(List<UpdateResult> results) {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).future.set(results.get(i));
+                }
+                LOG.debug("Write queue batch sent, node = {}, updates = {}, linger = {}us.",
+                        nodeId, batch.size(), TimeUnit.NANOSECONDS.toMicros(waitedNanos));
+                done.set(null);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                LOG.info("Write queue batch failed, node = {}, updates = {}, reason = {}.",
+                        nodeId, batch.size(), throwable.getMessage());
+                batch.forEach(p -> p.future.setException(throwable));
+                done.set(null);
+            }
+        }, MoreExecutors.directExecutor());
+        return done;
+    }
+
+    private static final class PendingUpdate {
+        private final Update update;
+        private final SettableFuture<UpdateResult> future;
+
+        private PendingUpdate(Update update, SettableFuture<UpdateResult> future) {
+            this.update = update;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Batch size and linger latency, the time the first update of a batch
+     * waited before the batch was handed over for writing.
+     */
+    public static final class Metrics {
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong updates = new AtomicLong();
+        private final AtomicLong maxBatchSize = new AtomicLong();
+        private final AtomicLong totalLingerNanos = new AtomicLong();
+        private final AtomicLong maxLingerNanos = new AtomicLong();
+
+        private void record(int batchSize, long lingerNanos) {
+            batches.incrementAndGet();
+            updates.addAndGet(batchSize);
+            totalLingerNanos.addAndGet(lingerNanos);
+            maxBatchSize.accumulateAndGet(batchSize, Math::max);
+            maxLingerNanos.accumulateAndGet(lingerNanos, Math::max);
+        }
+
+        public long getBatches() {
+            return batches.get();
+        }
+
+        public long getUpdates() {
+            return updates.get();
+        }
+
+        public long getMaxBatchSize() {
+            return maxBatchSize.get();
+        }
+
+        public double getAverageBatchSize() {
+            long count = batches.get();
+            return count == 0 ? 0 : (double) updates.get() / count;
+        }
+
+        public long getAverageLingerMicros() {
+            long count = batches.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLingerNanos.get() / count);
+        }
+
+        public long getMaxLingerMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxLingerNanos.get());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("batches = %d, updates = %d, avg/max batch size = %.1f/%d, "
+                            + "avg/max linger = %d/%dus", getBatches(), getUpdates(), getAverageBatchSize(),
+                    getMaxBatchSize(), getAverageLingerMicros(), getMaxLingerMicros());
+        }
+    }
+}
@@ -8,8 +8,6 @@
 package org.opendaylight.p4plugin;
 
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
 import org.opendaylight.mdsal.binding.api.DataBroker;
 import org.opendaylight.p4plugin.device.DeviceManager;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.gnmi.rev170808.P4pluginGnmiService;
@@ -22,26 +20,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
 
 public class gNMIServiceProvider implements P4pluginGnmiService {
     private static final Logger LOG = LoggerFactory.getLogger(gNMIServiceProvider.class);
     private final DataBroker dataBroker;
+    private final ShardedExecutor executor;
     private DeviceManager deviceManager;
-    private ListeningExecutorService executorService;
 
-    public gNMIServiceProvider(final DataBroker dataBroker) {
+    public gNMIServiceProvider(final DataBroker dataBroker, final ShardedExecutor executor) {
         this.dataBroker = dataBroker;
+        this.executor = executor;
     }
 
     public void init() {
-        executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(1));
         deviceManager = DeviceManager.getInstance();
         LOG.info("P4 plugin gNMI service provider initiated.");
     }
 
     public void close() {
-        executorService.shutdown();
         LOG.info("P4 plugin gNMI service provider closed.");
     }
 
@@ -57,6 +53,6 @@ public class gNMIServiceProvider implements P4pluginGnmiService {
 
     @Override
     public ListenableFuture<RpcResult<SubscribeOutput>> subscribe(SubscribeInput input) {
-        return executorService.submit(sub(input));
+        return executor.submit(input.getNid(), sub(input));
     }
 }
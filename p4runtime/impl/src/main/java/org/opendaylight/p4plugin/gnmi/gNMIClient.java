@@ -30,11 +30,11 @@ public class gNMIClient {
     private gNMIGrpc.gNMIStub asyncStub;
     private StreamObserver<SubscribeRequest> requestStreamObserver;
     //private PacketInHandler packetInHandler;
-    private boolean isFinished;
+    private volatile boolean isFinished;
     private ListeningExecutorService executorService = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
 
     public gNMIClient(String ip, Integer port, String nodeId) {
-        ManagedChannel managedChannel = getManagedChannel(ip, port);
+        ManagedChannel managedChannel = ChannelFactory.getInstance().acquireChannel(ip, port);
         this.nodeId = nodeId;
         this.ip = ip;
         this.port = port;
@@ -42,9 +42,14 @@ public class gNMIClient {
         this.asyncStub = gNMIGrpc.newStub(managedChannel);
     }
 
-    private ManagedChannel getManagedChannel(String ip , Integer port) {
-        String key = String.format("%s:%d", ip, port);
-        return ChannelFactory.getInstance().getManagedChannel(key);
+    /**
+     * Stop the subscription and release the channel to the server. The
+     * client can't be used afterwards.
+     */
+    public void close() {
+        isFinished = true;
+        executorService.shutdownNow();
+        ChannelFactory.getInstance().releaseChannel(ip, port);
     }
 
     public void subscribe(SubscribeRequest request) {
@@ -75,7 +80,7 @@ public class gNMIClient {
             }
         };
 
-        StreamObserver<SubscribeRequest> requestStreamObserver = asyncStub.subscribe(responseStreamObserver);
+        requestStreamObserver = asyncStub.subscribe(responseStreamObserver);
         requestStreamObserver.onNext(request);
         ListenableFuture<Boolean> listenableFuture = executorService.submit(() -> {
             while(!isFinished) {
@@ -0,0 +1,255 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.p4info;
+
+import org.opendaylight.p4plugin.p4info.proto.ControllerPacketMetadata;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.proto.Preamble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, indexed view of a P4Info. Tables, actions and controller packet
+ * metadata are keyed by name, alias and id, and their fields carry precomputed
+ * bit and byte widths. Build it once per pipeline and share it.
+ */
+public final class P4InfoIndex {
+    private static final String PACKET_IN = "packet_in";
+    private static final String PACKET_OUT = "packet_out";
+    private final P4Info p4Info;
+    private final Map<String, TableInfo> tablesByName = new HashMap<>();
+    private final Map<Integer, TableInfo> tablesById = new HashMap<>();
+    private final Map<String, ActionInfo> actionsByName = new HashMap<>();
+    private final Map<Integer, ActionInfo> actionsById = new HashMap<>();
+    private final Map<String, PacketMetadataInfo> packetMetadataByName = new HashMap<>();
+
+    public P4InfoIndex(P4Info p4Info) {
+        this.p4Info = p4Info;
+        p4Info.getTablesList().forEach(table -> {
+            TableInfo info = new TableInfo(table);
+            putSymbol(tablesByName, tablesById, table.getPreamble(), info);
+        });
+
+        p4Info.getActionsList().forEach(action -> {
+            ActionInfo info = new ActionInfo(action);
+            putSymbol(actionsByName, actionsById, action.getPreamble(), info);
+        });
+
+        p4Info.getControllerPacketMetadataList().forEach(metadata -> {
+            PacketMetadataInfo info = new PacketMetadataInfo(metadata);
+            putSymbol(packetMetadataByName, null, metadata.getPreamble(), info);
+        });
+    }
+
+    private static <T> void putSymbol(Map<String, T> byName, Map<Integer, T> byId, Preamble preamble, T info) {
+        byName.putIfAbsent(preamble.getName(), info);
+        if (!preamble.getAlias().isEmpty()) {
+            byName.putIfAbsent(preamble.getAlias(), info);
+        }
+        if (byId != null) {
+            byId.putIfAbsent(preamble.getId(), info);
+        }
+    }
+
+    public P4Info getP4Info() {
+        return p4Info;
+    }
+
+    public TableInfo getTable(String tableName) {
+        TableInfo info = tablesByName.get(tableName);
+        if (info == null) {
+            throw new IllegalArgumentException(String.format("Table name %s.", tableName));
+        }
+        return info;
+    }
+
+    public TableInfo getTable(int tableId) {
+        TableInfo info = tablesById.get(tableId);
+        if (info == null) {
+            throw new IllegalArgumentException(String.format("Table id %d.", tableId));
+        }
+        return info;
+    }
+
+    public ActionInfo getAction(String actionName) {
+        ActionInfo info = actionsByName.get(actionName);
+        if (info == null) {
+            throw new IllegalArgumentException(String.format("Action name %s.", actionName));
+        }
+        return info;
+    }
+
+    public ActionInfo getAction(int actionId) {
+        ActionInfo info = actionsById.get(actionId);
+        if (info == null) {
+            throw new IllegalArgumentException(String.format("Action id %d.", actionId));
+        }
+        return info;
+    }
+
+    public PacketMetadataInfo getPacketInMetadata() {
+        return getPacketMetadata(PACKET_IN);
+    }
+
+    /**
+     * False for a pipeline without a packet_in header.
+     */
+    public boolean hasPacketInMetadata() {
+        return packetMetadataByName.containsKey(PACKET_IN);
+    }
+
+    public PacketMetadataInfo getPacketOutMetadata() {
+        return getPacketMetadata(PACKET_OUT);
+    }
+
+    private PacketMetadataInfo getPacketMetadata(String headerName) {
+        PacketMetadataInfo info = packetMetadataByName.get(headerName);
+        if (info == null) {
+            throw new RuntimeException(String.format("No controller metadata named \"%s\"", headerName));
+        }
+        return info;
+    }
+
+    /**
+     * A match field, an action parameter or a controller packet metadata.
+     */
+    public static final class FieldInfo {
+        private final int id;
+        private final String name;
+        private final int bitWidth;
+        private final int byteWidth;
+        private final MatchField.MatchType matchType;
+
+        private FieldInfo(int id, String name, int bitWidth, MatchField.MatchType matchType) {
+            this.id = id;
+            this.name = name;
+            this.bitWidth = bitWidth;
+            this.byteWidth = (bitWidth + 7) / 8;
+            this.matchType = matchType;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getBitWidth() {
+            return bitWidth;
+        }
+
+        public int getByteWidth() {
+            return byteWidth;
+        }
+
+        /**
+         * Only set for match fields.
+         */
+        public MatchField.MatchType getMatchType() {
+            return matchType;
+        }
+    }
+
+    /**
+     * Common part of tables, actions and controller packet metadata headers,
+     * a named P4 object owning an ordered list of fields.
+     */
+    public abstract static class SymbolInfo {
+        private final int id;
+        private final String name;
+        private final String fieldKind;
+        private final List<FieldInfo> fields;
+        private final Map<String, FieldInfo> fieldsByName = new HashMap<>();
+        private final Map<Integer, FieldInfo> fieldsById = new HashMap<>();
+
+        private SymbolInfo(Preamble preamble, String fieldKind, List<FieldInfo> fields) {
+            this.id = preamble.getId();
+            this.name = preamble.getName();
+            this.fieldKind = fieldKind;
+            this.fields = Collections.unmodifiableList(fields);
+            fields.forEach(field -> {
+                fieldsByName.putIfAbsent(field.getName(), field);
+                fieldsById.putIfAbsent(field.getId(), field);
+            });
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<FieldInfo> getFields() {
+            return fields;
+        }
+
+        public FieldInfo getField(String fieldName) {
+            FieldInfo info = fieldsByName.get(fieldName);
+            if (info == null) {
+                throw new IllegalArgumentException(String.format("%s name %s.", fieldKind, fieldName));
+            }
+            return info;
+        }
+
+        public FieldInfo getField(int fieldId) {
+            FieldInfo info = fieldsById.get(fieldId);
+            if (info == null) {
+                throw new IllegalArgumentException(String.format("%s id %d.", fieldKind, fieldId));
+            }
+            return info;
+        }
+    }
+
+    public static final class TableInfo extends SymbolInfo {
+        private TableInfo(org.opendaylight.p4plugin.p4info.proto.Table table) {
+            super(table.getPreamble(), "Match field", matchFields(table));
+        }
+
+        private static List<FieldInfo> matchFields(org.opendaylight.p4plugin.p4info.proto.Table table) {
+            List<FieldInfo> fields = new ArrayList<>(table.getMatchFieldsCount());
+            table.getMatchFieldsList().forEach(field -> fields.add(
+                    new FieldInfo(field.getId(), field.getName(), field.getBitwidth(), field.getMatchType())));
+            return fields;
+        }
+    }
+
+    public static final class ActionInfo extends SymbolInfo {
+        private ActionInfo(org.opendaylight.p4plugin.p4info.proto.Action action) {
+            super(action.getPreamble(), "Param", params(action));
+        }
+
+        private static List<FieldInfo> params(org.opendaylight.p4plugin.p4info.proto.Action action) {
+            List<FieldInfo> fields = new ArrayList<>(action.getParamsCount());
+            action.getParamsList().forEach(param -> fields.add(
+                    new FieldInfo(param.getId(), param.getName(), param.getBitwidth(), null)));
+            return fields;
+        }
+    }
+
+    public static final class PacketMetadataInfo extends SymbolInfo {
+        private PacketMetadataInfo(ControllerPacketMetadata metadata) {
+            super(metadata.getPreamble(), "Metadata", metadataFields(metadata));
+        }
+
+        private static List<FieldInfo> metadataFields(ControllerPacketMetadata metadata) {
+            List<FieldInfo> fields = new ArrayList<>(metadata.getMetadataCount());
+            metadata.getMetadataList().forEach(m -> fields.add(
+                    new FieldInfo(m.getId(), m.getName(), m.getBitwidth(), null)));
+            return fields;
+        }
+    }
+}
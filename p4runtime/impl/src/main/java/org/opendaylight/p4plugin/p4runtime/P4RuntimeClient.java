@@ -7,18 +7,31 @@
  */
 package org.opendaylight.p4plugin.p4runtime;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
 import com.google.rpc.Code;
 import io.grpc.ManagedChannel;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.AbstractStub;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import org.opendaylight.p4plugin.channel.ChannelFactory;
-import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.P4InfoIndex;
 import org.opendaylight.p4plugin.p4runtime.proto.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class P4RuntimeClient {
     private static final Logger LOG = LoggerFactory.getLogger(P4RuntimeClient.class);
@@ -27,24 +40,43 @@ public class P4RuntimeClient {
     private String ip;
     private Integer port;
     private P4RuntimeGrpc.P4RuntimeBlockingStub blockingStub;
+    private P4RuntimeGrpc.P4RuntimeFutureStub futureStub;
     private P4RuntimeGrpc.P4RuntimeStub asyncStub;
-    private StreamObserver<StreamMessageRequest> requestStreamObserver;
+    private volatile StreamSender streamSender;
+    private final StreamSender.Metrics packetOutMetrics = new StreamSender.Metrics();
     private PacketInHandler packetInHandler;
+    private final WriteStripe[] writeStripes;
+    private final ChannelFactory.StripeSelection stripeSelection;
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    private final long rpcDeadlineMillis;
 
-    public P4RuntimeClient(String ip, Integer port, Long deviceId, String nodeId, P4Info p4Info) {
-        ManagedChannel managedChannel = getManagedChannel(ip, port);
+    /**
+     * Writes are spread over as many channels as the ChannelFactory write
+     * stripes setting; everything else, the stream channel included, stays
+     * on the first one. The client doesn't order writes sent concurrently;
+     * callers that need an order wait for the previous response before
+     * sending, as the RPC provider does for the writes of each entry, or pin
+     * the writes of an entry to one stripe and wait there, as batch writes do.
+     */
+    public P4RuntimeClient(String ip, Integer port, Long deviceId, String nodeId, P4InfoIndex p4InfoIndex) {
+        ChannelFactory channelFactory = ChannelFactory.getInstance();
+        ManagedChannel managedChannel = channelFactory.acquireChannel(ip, port);
         this.deviceId = deviceId;
         this.nodeId = nodeId;
         this.ip = ip;
         this.port = port;
         this.blockingStub = P4RuntimeGrpc.newBlockingStub(managedChannel);
+        this.futureStub = P4RuntimeGrpc.newFutureStub(managedChannel);
         this.asyncStub = P4RuntimeGrpc.newStub(managedChannel);
-        this.packetInHandler = new PacketInHandler(nodeId, p4Info);
-    }
-
-    private ManagedChannel getManagedChannel(String ip , Integer port) {
-        String key = String.format("%s:%d", ip, port);
-        return ChannelFactory.getInstance().getManagedChannel(key);
+        this.packetInHandler = new PacketInHandler(nodeId, p4InfoIndex);
+        this.stripeSelection = channelFactory.getStripeSelection();
+        this.rpcDeadlineMillis = channelFactory.getRpcDeadlineMillis();
+        this.writeStripes = new WriteStripe[channelFactory.getWriteStripes()];
+        writeStripes[0] = new WriteStripe(0, futureStub, rpcDeadlineMillis);
+        for (int i = 1; i < writeStripes.length; i++) {
+            ManagedChannel stripeChannel = channelFactory.acquireChannel(ip, port, i);
+            writeStripes[i] = new WriteStripe(i, P4RuntimeGrpc.newFutureStub(stripeChannel), rpcDeadlineMillis);
+        }
     }
 
     public SetForwardingPipelineConfigResponse setPipelineConfig(SetForwardingPipelineConfigRequest request) {
@@ -91,14 +123,123 @@ public class P4RuntimeClient {
         }
     }
 
+    /*
+     * Non-blocking variants. Nothing waits for the response, so no thread is
+     * held for the round trip; failures are logged the same way as above and
+     * complete the future with the StatusRuntimeException. Each call gets the
+     * ChannelFactory RPC deadline, so a switch that stops answering fails the
+     * call with DEADLINE_EXCEEDED instead of holding it forever.
+     */
+    public ListenableFuture<SetForwardingPipelineConfigResponse> setPipelineConfigAsync(
+            SetForwardingPipelineConfigRequest request) {
+        return logFailure(withDeadline(futureStub, rpcDeadlineMillis).setForwardingPipelineConfig(request),
+                "Set pipeline config");
+    }
+
+    public ListenableFuture<GetForwardingPipelineConfigResponse> getPipelineConfigAsync(
+            GetForwardingPipelineConfigRequest request) {
+        return logFailure(withDeadline(futureStub, rpcDeadlineMillis).getForwardingPipelineConfig(request),
+                "Get pipeline config");
+    }
+
+    public ListenableFuture<WriteResponse> writeAsync(WriteRequest request) {
+        return logFailure(selectWriteStripe().write(request), "Write RPC");
+    }
+
+    /**
+     * Write on the given stripe, modulo the number of stripes, whatever the
+     * stripe selection.
+     */
+    public ListenableFuture<WriteResponse> writeAsync(WriteRequest request, int stripe) {
+        return logFailure(writeStripes[Math.floorMod(stripe, writeStripes.length)].write(request), "Write RPC");
+    }
+
+    public int getWriteStripeCount() {
+        return writeStripes.length;
+    }
+
+    private WriteStripe selectWriteStripe() {
+        if (writeStripes.length == 1) {
+            return writeStripes[0];
+        }
+
+        int first = Math.floorMod(nextStripe.getAndIncrement(), writeStripes.length);
+        if (stripeSelection == ChannelFactory.StripeSelection.ROUND_ROBIN) {
+            return writeStripes[first];
+        }
+
+        /* starting from the round robin pick spreads the ties */
+        WriteStripe selected = writeStripes[first];
+        for (int i = 1; i < writeStripes.length && selected.getInFlight() > 0; i++) {
+            WriteStripe stripe = writeStripes[(first + i) % writeStripes.length];
+            if (stripe.getInFlight() < selected.getInFlight()) {
+                selected = stripe;
+            }
+        }
+        return selected;
+    }
+
+    public List<WriteStripe> getWriteStripes() {
+        return Collections.unmodifiableList(Arrays.asList(writeStripes));
+    }
+
+    /**
+     * Read responses are delivered to the observer as they arrive.
+     */
+    public void readAsync(ReadRequest request, StreamObserver<ReadResponse> responseObserver) {
+        withDeadline(asyncStub, rpcDeadlineMillis).read(request, responseObserver);
+    }
+
+    /**
+     * The stub for a new call, with a deadline unless deadlineMillis isn't positive.
+     */
+    private static <S extends AbstractStub<S>> S withDeadline(S stub, long deadlineMillis) {
+        return deadlineMillis > 0 ? stub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS) : stub;
+    }
+
+    private <T> ListenableFuture<T> logFailure(ListenableFuture<T> future, String operation) {
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {}
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                if (throwable instanceof StatusRuntimeException) {
+                    StatusRuntimeException e = (StatusRuntimeException) throwable;
+                    LOG.info("{} exception, Status = {}, Reason = {}.", operation, e.getStatus(), e.getMessage());
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
     public void openStreamChannel() {
-        StreamObserver<StreamMessageResponse> responseStreamObserver = new StreamObserver<StreamMessageResponse>() {
+        ChannelFactory channelFactory = ChannelFactory.getInstance();
+        ClientResponseObserver<StreamMessageRequest, StreamMessageResponse> responseStreamObserver =
+                new ClientResponseObserver<StreamMessageRequest, StreamMessageResponse>() {
+            private StreamSender sender;
+            private Runnable packetDone;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<StreamMessageRequest> requestStream) {
+                sender = new StreamSender(nodeId, requestStream, channelFactory.getPacketOutQueueCapacity(),
+                        channelFactory.getPacketOutOverflowPolicy(), channelFactory.getPacketOutBlockTimeoutMillis(),
+                        packetOutMetrics, channelFactory.getPacketInWindow());
+                requestStream.setOnReadyHandler(sender::onReady);
+                packetDone = sender.isManualInbound() ? sender::releaseInbound : null;
+                streamSender = sender;
+            }
+
             @Override
             public void onNext(StreamMessageResponse streamMessageResponse) {
                 switch (streamMessageResponse.getUpdateCase()) {
                     case PACKET:
-                        packetInHandler.process(streamMessageResponse);
-                        break;
+                        PacketIn packet = streamMessageResponse.getPacket();
+                        if (!packetInHandler.admit(packet)) {
+                            break;
+                        }
+                        PacketInDispatcher.getInstance().dispatch(packetInHandler, packet, packetDone);
+                        return;
 
                     case ARBITRATION:
                         MasterArbitrationUpdate update = streamMessageResponse.getArbitration();
@@ -114,22 +255,28 @@ public class P4RuntimeClient {
                     case UPDATE_NOT_SET:break;
                     default:break;
                 }
+
+                /* anything but queued packet-ins is taken care of already, its credit is given back now */
+                if (packetDone != null) {
+                    sender.requestInbound(1);
+                }
             }
 
             @Override
             public void onError(Throwable throwable) {
-                requestStreamObserver = null;
+                sender.terminate();
                 LOG.info("Stream channel on error, reason = {}, node = {}", throwable.getMessage(), nodeId);
             }
 
             @Override
             public void onCompleted() {
-                requestStreamObserver = null;
+                sender.terminate();
                 LOG.info("Stream channel on error, node = {}", nodeId);
             }
         };
 
-        requestStreamObserver =  asyncStub.streamChannel(responseStreamObserver);
+        asyncStub.streamChannel(responseStreamObserver);
+        streamSender.startInbound();
         /* send master arbitration update packet immediately, right now we only support election id = 0 */
         Uint128.Builder electionIdBuilder = Uint128.newBuilder();
         electionIdBuilder.setHigh(0);
@@ -141,17 +288,56 @@ public class P4RuntimeClient {
     }
 
     public void closeStreamChannel() {
-        if (requestStreamObserver != null) {
-            requestStreamObserver.onCompleted();
+        StreamSender sender = streamSender;
+        if (sender != null) {
+            sender.close();
         }
     }
 
+    /**
+     * Close the stream channel and release the channel to the server. The
+     * client can't be used afterwards.
+     */
+    public void close() {
+        closeStreamChannel();
+        for (int i = 1; i < writeStripes.length; i++) {
+            ChannelFactory.getInstance().releaseChannel(ip, port, i);
+        }
+        ChannelFactory.getInstance().releaseChannel(ip, port);
+    }
+
     public void transmitPacket(StreamMessageRequest request) {
-        if (requestStreamObserver != null) {
-            requestStreamObserver.onNext(request);
-        } else {
-            LOG.info("Stream channel is null, node = {}.", nodeId);
+        transmitPackets(Collections.singletonList(request));
+    }
+
+    /**
+     * Write messages to the stream channel in list order, or queue them while
+     * the transport isn't ready; see StreamSender.
+     */
+    public void transmitPackets(List<StreamMessageRequest> requests) {
+        StreamSender sender = streamSender;
+        if (sender == null) {
+            LOG.info("Stream channel is null, node = {}, dropped = {}.", nodeId, requests.size());
+            return;
         }
+        sender.send(requests);
+    }
+
+    public StreamSender.Metrics getPacketOutMetrics() {
+        return packetOutMetrics;
+    }
+
+    public void setPacketInPolicy(PacketInPolicy policy) {
+        packetInHandler.getPolicer().setPolicy(policy);
+        LOG.info("Packet in policy set, node = {}, {}.", nodeId, policy);
+    }
+
+    public PacketInPolicy getPacketInPolicy() {
+        return packetInHandler.getPolicer().getPolicy();
+    }
+
+    public PacketInPolicer.Counters getPacketInCounters() {
+        return packetInHandler.getPolicer().getCounters();
     }
 
     public void sendPacket(byte[] payload) {
@@ -202,4 +388,49 @@ public class P4RuntimeClient {
 
         return stringBuilder.toString();
     }
+
+    /**
+     * One of the channels writes are spread over, with its write counters.
+     */
+    public static final class WriteStripe {
+        private final int index;
+        private final P4RuntimeGrpc.P4RuntimeFutureStub stub;
+        private final long deadlineMillis;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong writes = new AtomicLong();
+
+        private WriteStripe(int index, P4RuntimeGrpc.P4RuntimeFutureStub stub, long deadlineMillis) {
+            this.index = index;
+            this.stub = stub;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        private ListenableFuture<WriteResponse> write(WriteRequest request) {
+            inFlight.incrementAndGet();
+            writes.incrementAndGet();
+            ListenableFuture<WriteResponse> future = withDeadline(stub, deadlineMillis).write(request);
+            future.addListener(inFlight::decrementAndGet, MoreExecutors.directExecutor());
+            return future;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Writes sent and not answered yet.
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getWrites() {
+            return writes.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("stripe %d, in flight = %d, writes = %d", index, getInFlight(), getWrites());
+        }
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.p4runtime;
+
+import org.opendaylight.p4plugin.p4info.P4InfoIndex;
+import org.opendaylight.p4plugin.packet.PacketInEvent;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketMetadata;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.PacketReceived;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.PacketReceivedBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.packet.metadata.Metadata;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.packet.metadata.MetadataBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packet-in decoder compiled once per pipeline. The names of the packet_in
+ * metadata are laid out in an array indexed by metadata id, so decoding a
+ * packet is an array lookup per metadata. Metadata ids beyond MAX_DENSE_ID
+ * fall back to the P4Info index.
+ */
+final class PacketInDecoder {
+    private static final int MAX_DENSE_ID = 1024;
+    private final P4InfoIndex.PacketMetadataInfo packetInInfo;
+    private final String[] names;
+
+    /**
+     * Compile the decoder of a pipeline.
+     *
+     * @param p4InfoIndex null, or without a packet_in header, for a pipeline
+     *                    whose packets carry no metadata.
+     */
+    PacketInDecoder(P4InfoIndex p4InfoIndex) {
+        P4InfoIndex.PacketMetadataInfo info = p4InfoIndex != null && p4InfoIndex.hasPacketInMetadata()
+                ? p4InfoIndex.getPacketInMetadata() : null;
+        this.packetInInfo = info;
+
+        int maxId = -1;
+        if (info != null) {
+            for (P4InfoIndex.FieldInfo field : info.getFields()) {
+                if (field.getId() >= 0 && field.getId() <= MAX_DENSE_ID) {
+                    maxId = Math.max(maxId, field.getId());
+                }
+            }
+        }
+        this.names = new String[maxId + 1];
+        if (info != null) {
+            for (P4InfoIndex.FieldInfo field : info.getFields()) {
+                if (field.getId() >= 0 && field.getId() <= maxId && names[field.getId()] == null) {
+                    names[field.getId()] = field.getName();
+                }
+            }
+        }
+    }
+
+    PacketReceived decode(String nodeId, PacketIn packet) {
+        int count = packet.getMetadataCount();
+        List<Metadata> metadataList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PacketMetadata metadata = packet.getMetadata(i);
+            metadataList.add(new MetadataBuilder()
+                    .setMetadataName(getName(metadata.getMetadataId()))
+                    .setMetadataValue(metadata.getValue().toByteArray())
+                    .build());
+        }
+
+        return new PacketReceivedBuilder()
+                .setNid(nodeId)
+                .setMetadata(metadataList)
+                .setPayload(packet.getPayload().toByteArray())
+                .build();
+    }
+
+    /**
+     * The same packet as views on the received message, nothing is copied.
+     */
+    PacketInEvent decodeEvent(String nodeId, PacketIn packet) {
+        int count = packet.getMetadataCount();
+        String[] metadataNames = new String[count];
+        ByteBuffer[] metadataValues = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            PacketMetadata metadata = packet.getMetadata(i);
+            metadataNames[i] = getName(metadata.getMetadataId());
+            metadataValues[i] = metadata.getValue().asReadOnlyByteBuffer();
+        }
+        return new PacketInEvent(nodeId, packet.getPayload().asReadOnlyByteBuffer(), metadataNames, metadataValues);
+    }
+
+    private String getName(int metadataId) {
+        if (metadataId >= 0 && metadataId < names.length && names[metadataId] != null) {
+            return names[metadataId];
+        }
+        if (packetInInfo == null) {
+            throw new IllegalArgumentException(String.format("Metadata id %d, no packet_in header.", metadataId));
+        }
+        return packetInInfo.getField(metadataId).getName();
+    }
+}
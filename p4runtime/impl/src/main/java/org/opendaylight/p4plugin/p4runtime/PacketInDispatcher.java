@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.p4runtime;
+
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves packet-in decoding and publishing off the stream channel threads.
+ * Packets are queued on bounded ring buffers, one per worker, and a device
+ * always maps to the same worker so its packets keep their order. When a
+ * queue is full the overflow policy drops the oldest queued packet, drops
+ * the new one, or blocks the stream channel until there is room, dropping
+ * the new one if there is still none after the block timeout.
+ */
+public final class PacketInDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(PacketInDispatcher.class);
+    private static PacketInDispatcher singleton = new PacketInDispatcher();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private volatile int workerCount;
+    private volatile int queueCapacity = 4096;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private volatile long blockTimeoutMillis = 100;
+    private volatile Worker[] workers;
+
+    private PacketInDispatcher() {}
+
+    public static PacketInDispatcher getInstance() {
+        return singleton;
+    }
+
+    void dispatch(PacketInHandler handler, PacketIn packet) {
+        dispatch(handler, packet, null);
+    }
+
+    /**
+     * @param done run once the packet is processed or dropped, may be null.
+     */
+    void dispatch(PacketInHandler handler, PacketIn packet, Runnable done) {
+        Worker[] current = getWorkers();
+        Worker worker = current[Math.floorMod(handler.getNodeId().hashCode(), current.length)];
+        PendingPacket pending = new PendingPacket(handler, packet, done);
+
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                if (!worker.queue.offer(pending)) {
+                    drop(pending);
+                    return;
+                }
+                break;
+            case BLOCK:
+                try {
+                    if (!worker.queue.offer(pending, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        drop(pending);
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop(pending);
+                    return;
+                }
+                break;
+            case DROP_OLDEST:
+            default:
+                while (!worker.queue.offer(pending)) {
+                    PendingPacket oldest = worker.queue.poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                break;
+        }
+        enqueued.incrementAndGet();
+        /* close may have drained the queue before the packet got in */
+        if (worker.closed) {
+            worker.drain();
+        }
+    }
+
+    private void drop(PendingPacket pending) {
+        dropped.incrementAndGet();
+        pending.done();
+    }
+
+    private Worker[] getWorkers() {
+        Worker[] current = workers;
+        if (current == null) {
+            synchronized (this) {
+                current = workers;
+                if (current == null) {
+                    int count = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+                    current = new Worker[count];
+                    for (int i = 0; i < count; i++) {
+                        current[i] = new Worker(i, queueCapacity);
+                        current[i].start();
+                    }
+                    workers = current;
+                    LOG.info("Packet in dispatcher started, workers = {}, queue capacity = {}, overflow = {}.",
+                            count, queueCapacity, overflowPolicy);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Workers, the number of processors if not positive. Only effective
+     * before the first packet.
+     */
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Capacity of the queue of each worker. Only effective before the first packet.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive.");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * drop-oldest, drop-newest or block.
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        try {
+            this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid overflow policy %s.", overflowPolicy), e);
+        }
+    }
+
+    /**
+     * How long the block policy holds a stream channel thread waiting for
+     * room before dropping the packet; 0 drops right away. The thread may be
+     * a shared event loop, so keep it short and prefer packet_in_window to
+     * slow the switch down.
+     */
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = Math.max(0, blockTimeoutMillis);
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    /**
+     * Packets waiting in all queues.
+     */
+    public int getQueueDepth() {
+        Worker[] current = workers;
+        int depth = 0;
+        if (current != null) {
+            for (Worker worker : current) {
+                depth += worker.queue.size();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Stop the workers; packets still queued are dropped and their done
+     * callbacks run, as are those of packets a concurrent dispatch queues on
+     * a stopped worker. The dispatcher starts again on the next packet.
+     */
+    public synchronized void close() {
+        Worker[] current = workers;
+        workers = null;
+        if (current != null) {
+            for (Worker worker : current) {
+                worker.closed = true;
+                worker.interrupt();
+                worker.drain();
+            }
+        }
+        LOG.info("Packet in dispatcher closed, enqueued = {}, dropped = {}, processed = {}.",
+                getEnqueuedCount(), getDroppedCount(), getProcessedCount());
+    }
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK
+    }
+
+    private static final class PendingPacket {
+        private final PacketInHandler handler;
+        private final PacketIn packet;
+        private final Runnable done;
+
+        private PendingPacket(PacketInHandler handler, PacketIn packet, Runnable done) {
+            this.handler = handler;
+            this.packet = packet;
+            this.done = done;
+        }
+
+        private void done() {
+            if (done != null) {
+                done.run();
+            }
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final ArrayBlockingQueue<PendingPacket> queue;
+        private volatile boolean closed;
+
+        private Worker(int index, int capacity) {
+            super("p4-packet-in-" + index);
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * Drop what is queued; each packet is polled once, whoever drains.
+         */
+        private void drain() {
+            PendingPacket pending;
+            while ((pending = queue.poll()) != null) {
+                drop(pending);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!closed && !isInterrupted()) {
+                PendingPacket pending;
+                try {
+                    pending = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    pending.handler.process(pending.packet);
+                } catch (RuntimeException e) {
+                    LOG.info("Packet in processing failed, node = {}, reason = {}.",
+                            pending.handler.getNodeId(), e.getMessage());
+                }
+                processed.incrementAndGet();
+                pending.done();
+            }
+        }
+    }
+}
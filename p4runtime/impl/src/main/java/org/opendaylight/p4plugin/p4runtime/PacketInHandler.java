@@ -7,62 +7,56 @@
  */
 package org.opendaylight.p4plugin.p4runtime;
 
-import com.google.protobuf.ByteString;
 import org.opendaylight.p4plugin.NotificationPublisher;
-import org.opendaylight.p4plugin.p4info.proto.ControllerPacketMetadata;
-import org.opendaylight.p4plugin.p4info.proto.P4Info;
-import org.opendaylight.p4plugin.p4runtime.proto.PacketMetadata;
-import org.opendaylight.p4plugin.p4runtime.proto.StreamMessageResponse;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.PacketReceivedBuilder;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.packet.metadata.Metadata;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.p4runtime.rev170808.packet.metadata.MetadataBuilder;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import org.opendaylight.p4plugin.p4info.P4InfoIndex;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.packet.PacketListenerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class PacketInHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(PacketInHandler.class);
     private String nodeId;
-    private P4Info p4Info;
+    private PacketInDecoder decoder;
+    private PacketInPolicer policer;
 
-    public PacketInHandler(String nodeId, P4Info p4Info) {
+    public PacketInHandler(String nodeId, P4InfoIndex p4InfoIndex) {
         this.nodeId = nodeId;
-        this.p4Info = p4Info;
+        this.decoder = new PacketInDecoder(p4InfoIndex);
+        this.policer = new PacketInPolicer(p4InfoIndex);
     }
 
-    public void process(StreamMessageResponse streamMessageResponse) {
-        PacketReceivedBuilder builder = new PacketReceivedBuilder();
-        byte[] payload = streamMessageResponse.getPacket().getPayload().toByteArray();
-        List<PacketMetadata> packetMetadataList = streamMessageResponse.getPacket().getMetadataList();
-        List<ControllerPacketMetadata> cPacketMetadataList = p4Info.getControllerPacketMetadataList();
-        List<Metadata> metadataList = new ArrayList<>();
-
-        for(PacketMetadata metadata : packetMetadataList) {
-            ByteString value = metadata.getValue();
-            int id = metadata.getMetadataId();
-
-            Optional<ControllerPacketMetadata> cPacketMetadataOptional = cPacketMetadataList
-                    .stream()
-                    .filter(cm -> cm.getPreamble().getName().equals("packet_in") || cm.getPreamble().getAlias().equals("packet_in"))
-                    .findFirst();
+    /**
+     * Whether the packet passes the packet-in policy, called on the stream
+     * channel thread before the packet is queued.
+     */
+    public boolean admit(PacketIn packet) {
+        return policer.admit(packet);
+    }
 
-            Optional<ControllerPacketMetadata.Metadata> cPacketMetadataMetadataOptional = cPacketMetadataOptional
-                    .orElseThrow(() -> new RuntimeException("No controller metadata named \"packet_in\""))
-                    .getMetadataList()
-                    .stream()
-                    .filter(m -> m.getId() == id)
-                    .findFirst();
+    public PacketInPolicer getPolicer() {
+        return policer;
+    }
 
-            MetadataBuilder metadataBuilder =  new MetadataBuilder();
-            metadataBuilder.setMetadataName(cPacketMetadataMetadataOptional
-                    .orElseThrow(() -> new RuntimeException("No controller metadata id = " + id)).getName());
-            metadataBuilder.setMetadataValue(value.toByteArray());
-            metadataList.add(metadataBuilder.build());
+    /**
+     * Listeners get the packet first, without copies, then it is published
+     * as a notification if enabled. A packet that can't be decoded is dropped.
+     */
+    public void process(PacketIn packet) {
+        PacketListenerRegistry registry = PacketListenerRegistry.getInstance();
+        try {
+            if (registry.hasPacketInListeners()) {
+                registry.publish(decoder.decodeEvent(nodeId, packet));
+            }
+            if (registry.isNotificationEnabled()) {
+                NotificationPublisher.getInstance().notify(decoder.decode(nodeId, packet));
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.info("Packet in dropped, node = {}, reason = {}.", nodeId, e.getMessage());
         }
+    }
 
-        builder.setMetadata(metadataList);
-        builder.setNid(nodeId);
-        builder.setPayload(payload);
-        NotificationPublisher.getInstance().notify(builder.build());
+    public String getNodeId() {
+        return nodeId;
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.p4runtime;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.p4info.P4InfoIndex;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketMetadata;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies the packet-in policy of one device on the stream channel thread,
+ * before a packet is queued, so a flooding switch costs no more than a
+ * counter increment per dropped packet. Packets of one stream channel arrive
+ * one at a time, so the buckets need no locking; setting a policy starts
+ * over with full buckets.
+ */
+public final class PacketInPolicer {
+    private static final int MAX_PORTS = 4096;
+    private final P4InfoIndex p4InfoIndex;
+    private final Counters counters = new Counters();
+    private volatile State state;
+
+    PacketInPolicer(P4InfoIndex p4InfoIndex) {
+        this.p4InfoIndex = p4InfoIndex;
+        this.state = new State(PacketInPolicy.UNLIMITED, 0);
+    }
+
+    void setPolicy(PacketInPolicy policy) {
+        int portMetadataId = policy.getPortMetadata() == null ? 0
+                : p4InfoIndex.getPacketInMetadata().getField(policy.getPortMetadata()).getId();
+        state = new State(policy, portMetadataId);
+    }
+
+    PacketInPolicy getPolicy() {
+        return state.policy;
+    }
+
+    Counters getCounters() {
+        return counters;
+    }
+
+    boolean admit(PacketIn packet) {
+        counters.received.incrementAndGet();
+        State current = state;
+        if (current.policy.getSampleOneIn() > 1 && current.sampled++ % current.policy.getSampleOneIn() != 0) {
+            counters.sampledOut.incrementAndGet();
+            return false;
+        }
+
+        long now = System.nanoTime();
+        if (current.portMetadataId != 0) {
+            TokenBucket portBucket = current.getPortBucket(packet);
+            if (portBucket != null && !portBucket.take(now)) {
+                counters.portLimited.incrementAndGet();
+                return false;
+            }
+        }
+
+        if (current.deviceBucket != null && !current.deviceBucket.take(now)) {
+            counters.deviceLimited.incrementAndGet();
+            return false;
+        }
+        counters.admitted.incrementAndGet();
+        return true;
+    }
+
+    private static final class State {
+        private final PacketInPolicy policy;
+        private final int portMetadataId;
+        private final TokenBucket deviceBucket;
+        private final Map<ByteString, TokenBucket> portBuckets = new HashMap<>();
+        private long sampled;
+
+        private State(PacketInPolicy policy, int portMetadataId) {
+            this.policy = policy;
+            this.portMetadataId = portMetadataId;
+            this.deviceBucket = policy.getRate() > 0 ? new TokenBucket(policy.getRate(), policy.getBurst()) : null;
+        }
+
+        /**
+         * Null if the packet has no port metadata, there is no port rate, or
+         * there are already too many ports.
+         */
+        private TokenBucket getPortBucket(PacketIn packet) {
+            if (policy.getPortRate() <= 0) {
+                return null;
+            }
+            for (PacketMetadata metadata : packet.getMetadataList()) {
+                if (metadata.getMetadataId() == portMetadataId) {
+                    TokenBucket bucket = portBuckets.get(metadata.getValue());
+                    if (bucket == null && portBuckets.size() < MAX_PORTS) {
+                        bucket = new TokenBucket(policy.getPortRate(), policy.getPortBurst());
+                        portBuckets.put(metadata.getValue(), bucket);
+                    }
+                    return bucket;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastNanos;
+
+        private TokenBucket(long rate, long burst) {
+            this.tokensPerNano = (double) rate / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = burst;
+            this.tokens = burst;
+            this.lastNanos = System.nanoTime();
+        }
+
+        private boolean take(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastNanos) * tokensPerNano);
+            lastNanos = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+
+    /**
+     * Packet-in counters of one device. Every received packet is either
+     * admitted or counted under the stage that dropped it.
+     */
+    public static final class Counters {
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong sampledOut = new AtomicLong();
+        private final AtomicLong portLimited = new AtomicLong();
+        private final AtomicLong deviceLimited = new AtomicLong();
+
+        private Counters() {}
+
+        public long getReceived() {
+            return received.get();
+        }
+
+        public long getAdmitted() {
+            return admitted.get();
+        }
+
+        public long getSampledOut() {
+            return sampledOut.get();
+        }
+
+        public long getPortLimited() {
+            return portLimited.get();
+        }
+
+        public long getDeviceLimited() {
+            return deviceLimited.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("received = %d, admitted = %d, sampled out = %d, port limited = %d, "
+                            + "device limited = %d", getReceived(), getAdmitted(), getSampledOut(),
+                    getPortLimited(), getDeviceLimited());
+        }
+    }
+}
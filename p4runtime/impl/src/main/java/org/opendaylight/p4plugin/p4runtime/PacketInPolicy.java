@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.p4runtime;
+
+/**
+ * Packet-in policing of one device: 1-in-N sampling, then a token bucket per
+ * ingress port, then a token bucket for the whole device. A rate that isn't
+ * positive means no limit, a burst that isn't positive defaults to one
+ * second worth of the rate.
+ */
+public final class PacketInPolicy {
+    public static final PacketInPolicy UNLIMITED = newBuilder().build();
+    private final long rate;
+    private final long burst;
+    private final long sampleOneIn;
+    private final String portMetadata;
+    private final long portRate;
+    private final long portBurst;
+
+    private PacketInPolicy(Builder builder) {
+        this.rate = Math.max(0, builder.rate_);
+        this.burst = defaultBurst(builder.burst_, rate);
+        this.sampleOneIn = Math.max(1, builder.sampleOneIn_);
+        this.portMetadata = builder.portMetadata_;
+        this.portRate = Math.max(0, builder.portRate_);
+        this.portBurst = defaultBurst(builder.portBurst_, portRate);
+    }
+
+    private static long defaultBurst(long burst, long rate) {
+        return burst > 0 ? burst : Math.max(1, rate);
+    }
+
+    /**
+     * Packets per second let through for the whole device.
+     */
+    public long getRate() {
+        return rate;
+    }
+
+    public long getBurst() {
+        return burst;
+    }
+
+    /**
+     * Only one packet in this many is kept, 1 to keep all.
+     */
+    public long getSampleOneIn() {
+        return sampleOneIn;
+    }
+
+    /**
+     * Packet-in metadata holding the ingress port, null for no per-port limit.
+     */
+    public String getPortMetadata() {
+        return portMetadata;
+    }
+
+    /**
+     * Packets per second let through for each ingress port.
+     */
+    public long getPortRate() {
+        return portRate;
+    }
+
+    public long getPortBurst() {
+        return portBurst;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rate = %d, burst = %d, sample one in = %d, port metadata = %s, "
+                + "port rate = %d, port burst = %d", rate, burst, sampleOneIn, portMetadata, portRate, portBurst);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private long rate_;
+        private long burst_;
+        private long sampleOneIn_ = 1;
+        private String portMetadata_;
+        private long portRate_;
+        private long portBurst_;
+
+        public Builder setRate(long rate) {
+            this.rate_ = rate;
+            return this;
+        }
+
+        public Builder setBurst(long burst) {
+            this.burst_ = burst;
+            return this;
+        }
+
+        public Builder setSampleOneIn(long sampleOneIn) {
+            this.sampleOneIn_ = sampleOneIn;
+            return this;
+        }
+
+        public Builder setPortMetadata(String portMetadata) {
+            this.portMetadata_ = portMetadata;
+            return this;
+        }
+
+        public Builder setPortRate(long portRate) {
+            this.portRate_ = portRate;
+            return this;
+        }
+
+        public Builder setPortBurst(long portBurst) {
+            this.portBurst_ = portBurst;
+            return this;
+        }
+
+        public PacketInPolicy build() {
+            return new PacketInPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.p4runtime;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import org.opendaylight.p4plugin.channel.ChannelFactory;
+import org.opendaylight.p4plugin.p4runtime.proto.StreamMessageRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sending side of one stream channel. Messages go straight to the transport
+ * while it is ready; otherwise they wait in a bounded queue, drained from
+ * the onReady callback as the switch catches up. When the queue is full the
+ * overflow policy drops the oldest queued packet-out, drops the new one, or
+ * blocks the sender until there is room, dropping the new one if there is
+ * still none after the block timeout. Only packet-outs count against the
+ * bound and can be dropped, arbitration messages are always queued.
+ *
+ * With an inbound window, automatic inbound flow control is off and at most
+ * that many messages are requested from the switch ahead of processing.
+ * Packet-ins give their credit back once the packet-in workers are done
+ * with them, other messages as soon as they arrive, so HTTP/2 flow control
+ * holds packet-ins back on the switch while arbitration keeps flowing.
+ * The sender serializes every use of the call, which isn't thread safe.
+ */
+public final class StreamSender {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamSender.class);
+    private final String nodeId;
+    private final ClientCallStreamObserver<StreamMessageRequest> requestStream;
+    private final int capacity;
+    private final ChannelFactory.OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+    private final Metrics metrics;
+    private final int inboundWindow;
+    private final int inboundRefill;
+    private int releasedInbound;
+    private final ArrayDeque<StreamMessageRequest> queue = new ArrayDeque<>();
+    private int queuedPackets;
+    private boolean closed;
+
+    StreamSender(String nodeId, ClientCallStreamObserver<StreamMessageRequest> requestStream,
+                 int capacity, ChannelFactory.OverflowPolicy overflowPolicy, long blockTimeoutMillis,
+                 Metrics metrics, int inboundWindow) {
+        this.nodeId = nodeId;
+        this.requestStream = requestStream;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.metrics = metrics;
+        this.inboundWindow = inboundWindow;
+        /* credits are given back in batches, to ask the transport less often */
+        this.inboundRefill = Math.max(1, inboundWindow / 4);
+        if (inboundWindow > 0) {
+            requestStream.disableAutoInboundFlowControl();
+        }
+    }
+
+    boolean isManualInbound() {
+        return inboundWindow > 0;
+    }
+
+    /**
+     * Open the inbound window once the call has started, which has already
+     * requested the first message.
+     */
+    synchronized void startInbound() {
+        if (!closed && inboundWindow > 1) {
+            requestStream.request(inboundWindow - 1);
+        }
+    }
+
+    /**
+     * Ask for count more inbound messages right away.
+     */
+    synchronized void requestInbound(int count) {
+        if (!closed) {
+            requestStream.request(count);
+        }
+    }
+
+    /**
+     * Give back the credit of one processed inbound message.
+     */
+    synchronized void releaseInbound() {
+        if (closed) {
+            return;
+        }
+        if (++releasedInbound >= inboundRefill) {
+            requestStream.request(releasedInbound);
+            releasedInbound = 0;
+        }
+    }
+
+    /**
+     * Send or queue the messages, in list order.
+     */
+    synchronized void send(List<StreamMessageRequest> requests) {
+        for (int i = 0; i < requests.size(); i++) {
+            if (closed) {
+                metrics.dropped.addAndGet(countPackets(requests.subList(i, requests.size())));
+                LOG.info("Stream channel closed, node = {}.", nodeId);
+                return;
+            }
+
+            StreamMessageRequest request = requests.get(i);
+            if (queue.isEmpty() && requestStream.isReady()) {
+                write(request);
+            } else if (!request.hasPacket() || makeRoom()) {
+                enqueue(request);
+            }
+        }
+    }
+
+    /**
+     * Room for one more packet-out, after applying the overflow policy.
+     * False if the new packet is dropped instead.
+     */
+    private boolean makeRoom() {
+        while (queuedPackets >= capacity) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    if (!awaitRoom()) {
+                        metrics.dropped.incrementAndGet();
+                        return false;
+                    }
+                    break;
+                case DROP_NEWEST:
+                    metrics.dropped.incrementAndGet();
+                    return false;
+                case DROP_OLDEST:
+                default:
+                    dropOldestPacket();
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait for onReady to make room, at most the block timeout. False if the
+     * timeout expired or the stream is over.
+     */
+    private boolean awaitRoom() {
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        while (!closed && queuedPackets >= capacity) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                LOG.debug("Packet-out blocked too long, dropped, node = {}.", nodeId);
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !closed;
+    }
+
+    private void dropOldestPacket() {
+        Iterator<StreamMessageRequest> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            StreamMessageRequest request = iterator.next();
+            if (request.hasPacket()) {
+                iterator.remove();
+                dequeued(request);
+                metrics.dropped.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called by gRPC when the transport can take more messages.
+     */
+    synchronized void onReady() {
+        while (!queue.isEmpty() && requestStream.isReady()) {
+            StreamMessageRequest request = queue.poll();
+            dequeued(request);
+            write(request);
+        }
+        notifyAll();
+    }
+
+    private void enqueue(StreamMessageRequest request) {
+        queue.add(request);
+        if (request.hasPacket()) {
+            queuedPackets++;
+        }
+        long pendingBytes = metrics.pendingBytes.addAndGet(request.getSerializedSize());
+        metrics.maxPendingBytes.accumulateAndGet(pendingBytes, Math::max);
+    }
+
+    private void dequeued(StreamMessageRequest request) {
+        if (request.hasPacket()) {
+            queuedPackets--;
+        }
+        metrics.pendingBytes.addAndGet(-request.getSerializedSize());
+    }
+
+    private void write(StreamMessageRequest request) {
+        requestStream.onNext(request);
+        metrics.sent.incrementAndGet();
+    }
+
+    /**
+     * Complete the stream; queued messages are dropped.
+     */
+    synchronized void close() {
+        if (!closed) {
+            terminate();
+            requestStream.onCompleted();
+        }
+    }
+
+    /**
+     * The stream is over, on either side. Queued messages are dropped and
+     * blocked senders released.
+     */
+    synchronized void terminate() {
+        closed = true;
+        metrics.dropped.addAndGet(queuedPackets);
+        queue.forEach(request -> metrics.pendingBytes.addAndGet(-request.getSerializedSize()));
+        queue.clear();
+        queuedPackets = 0;
+        notifyAll();
+    }
+
+    private static int countPackets(List<StreamMessageRequest> requests) {
+        int count = 0;
+        for (StreamMessageRequest request : requests) {
+            if (request.hasPacket()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Packet-out counters of a client, kept across its stream channels.
+     */
+    public static final class Metrics {
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private final AtomicLong maxPendingBytes = new AtomicLong();
+
+        Metrics() {}
+
+        /**
+         * Messages handed over to the transport.
+         */
+        public long getSent() {
+            return sent.get();
+        }
+
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        /**
+         * Serialized size of the messages waiting for the transport.
+         */
+        public long getPendingBytes() {
+            return pendingBytes.get();
+        }
+
+        public long getMaxPendingBytes() {
+            return maxPendingBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent = %d, dropped = %d, pending/max pending bytes = %d/%d",
+                    getSent(), getDropped(), getPendingBytes(), getMaxPendingBytes());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A packet-in with its decoded metadata. The payload and metadata values are
+ * read-only views of the received message, not copies; they stay valid after
+ * the listener returns. Each call returns a new view, with its own position.
+ */
+public final class PacketInEvent {
+    private final String nodeId;
+    private final ByteBuffer payload;
+    private final String[] metadataNames;
+    private final ByteBuffer[] metadataValues;
+
+    public PacketInEvent(String nodeId, ByteBuffer payload, String[] metadataNames, ByteBuffer[] metadataValues) {
+        if (metadataNames.length != metadataValues.length) {
+            throw new IllegalArgumentException("Metadata names and values don't match.");
+        }
+        this.nodeId = nodeId;
+        this.payload = payload;
+        this.metadataNames = metadataNames;
+        this.metadataValues = metadataValues;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public ByteBuffer getPayload() {
+        return payload.asReadOnlyBuffer();
+    }
+
+    public int getMetadataCount() {
+        return metadataNames.length;
+    }
+
+    public String getMetadataName(int index) {
+        return metadataNames[index];
+    }
+
+    public ByteBuffer getMetadataValue(int index) {
+        return metadataValues[index].asReadOnlyBuffer();
+    }
+
+    /**
+     * Null if the packet has no metadata of that name.
+     */
+    public ByteBuffer getMetadataValue(String name) {
+        ByteBuffer value = getSharedMetadataValue(name);
+        return value == null ? null : value.asReadOnlyBuffer();
+    }
+
+    /**
+     * The metadata value itself, for filters that only use absolute gets.
+     */
+    ByteBuffer getSharedMetadataValue(String name) {
+        for (int i = 0; i < metadataNames.length; i++) {
+            if (metadataNames[i].equals(name)) {
+                return metadataValues[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The 16 bit value at offset in the payload, -1 if the payload is shorter.
+     */
+    int getEtherType(int offset) {
+        int index = payload.position() + offset;
+        if (index + 1 >= payload.limit()) {
+            return -1;
+        }
+        return payload.getShort(index) & 0xFFFF;
+    }
+}
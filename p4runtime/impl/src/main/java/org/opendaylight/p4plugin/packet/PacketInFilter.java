@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.packet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Which packet-ins a listener is interested in: all conditions set must
+ * hold. Metadata values are compared as unsigned numbers, so a value may be
+ * given with fewer bytes than the P4Info bitwidth.
+ */
+public final class PacketInFilter {
+    public static final PacketInFilter ANY = newBuilder().build();
+    /* EtherType offset of an untagged Ethernet frame */
+    public static final int ETHER_TYPE_OFFSET = 12;
+    private final String nodeId;
+    private final String[] metadataNames;
+    private final byte[][] metadataValues;
+    private final int etherType;
+    private final int etherTypeOffset;
+
+    private PacketInFilter(Builder builder) {
+        this.nodeId = builder.nodeId_;
+        this.metadataNames = builder.metadata_.keySet().toArray(new String[0]);
+        this.metadataValues = builder.metadata_.values().toArray(new byte[0][]);
+        this.etherType = builder.etherType_;
+        this.etherTypeOffset = builder.etherTypeOffset_;
+    }
+
+    /**
+     * Null for any node.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * -1 for any EtherType.
+     */
+    public int getEtherType() {
+        return etherType;
+    }
+
+    public int getEtherTypeOffset() {
+        return etherTypeOffset;
+    }
+
+    boolean matchesMetadata(PacketInEvent event) {
+        for (int i = 0; i < metadataNames.length; i++) {
+            ByteBuffer value = event.getSharedMetadataValue(metadataNames[i]);
+            if (value == null || !equalsUnsigned(value, metadataValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean matchesEtherType(PacketInEvent event) {
+        return etherType < 0 || event.getEtherType(etherTypeOffset) == etherType;
+    }
+
+    private static boolean equalsUnsigned(ByteBuffer value, byte[] expected) {
+        int start = value.position();
+        while (start < value.limit() && value.get(start) == 0) {
+            start++;
+        }
+        if (value.limit() - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (value.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] stripLeadingZeros(byte[] value) {
+        int start = 0;
+        while (start < value.length && value[start] == 0) {
+            start++;
+        }
+        return Arrays.copyOfRange(value, start, value.length);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("node = %s, metadata = %s, ether type = %d at %d",
+                nodeId, Arrays.toString(metadataNames), etherType, etherTypeOffset);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private String nodeId_;
+        private final Map<String, byte[]> metadata_ = new LinkedHashMap<>();
+        private int etherType_ = -1;
+        private int etherTypeOffset_ = ETHER_TYPE_OFFSET;
+
+        public Builder setNodeId(String nodeId) {
+            this.nodeId_ = nodeId;
+            return this;
+        }
+
+        /**
+         * Match a packet-in metadata, e.g. the ingress port or a reason code.
+         */
+        public Builder addMetadata(String name, byte[] value) {
+            this.metadata_.put(name, stripLeadingZeros(value));
+            return this;
+        }
+
+        public Builder setEtherType(int etherType) {
+            return setEtherType(etherType, ETHER_TYPE_OFFSET);
+        }
+
+        /**
+         * Match the 16 bit value at offset in the payload, e.g. behind a VLAN tag.
+         */
+        public Builder setEtherType(int etherType, int offset) {
+            if (etherType < 0 || etherType > 0xFFFF || offset < 0) {
+                throw new IllegalArgumentException(String.format("Invalid ether type %d at %d.", etherType, offset));
+            }
+            this.etherType_ = etherType;
+            this.etherTypeOffset_ = offset;
+            return this;
+        }
+
+        public PacketInFilter build() {
+            return new PacketInFilter(this);
+        }
+    }
+}
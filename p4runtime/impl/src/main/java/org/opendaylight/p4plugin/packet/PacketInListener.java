@@ -0,0 +1,19 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.packet;
+
+import java.util.EventListener;
+
+/**
+ * Receives the packet-ins of all devices, in the JVM and without copies.
+ * Called on a packet-in worker thread, in the order the packets of a device
+ * arrived; it must not block.
+ */
+public interface PacketInListener extends EventListener {
+    void onPacketIn(PacketInEvent event);
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.packet;
+
+import org.opendaylight.yangtools.concepts.AbstractListenerRegistration;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Direct packet-in delivery to listeners in the JVM, the fast path next to
+ * the packet-received notification. The notification is still published
+ * unless disabled, which spares its copies and the MD-SAL hop when all
+ * consumers are listeners.
+ *
+ * Listeners subscribe with a filter. Filters are compiled into a table
+ * indexed by node id and by EtherType at the usual offset, rebuilt when a
+ * listener comes or goes, so a packet is only checked against the filters
+ * of its node and EtherType, plus those that don't constrain them.
+ */
+public final class PacketListenerRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(PacketListenerRegistry.class);
+    private static PacketListenerRegistry singleton = new PacketListenerRegistry();
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private volatile FilterTable table = new FilterTable(Collections.emptyList());
+    private volatile boolean notificationEnabled = true;
+
+    private PacketListenerRegistry() {}
+
+    public static PacketListenerRegistry getInstance() {
+        return singleton;
+    }
+
+    public ListenerRegistration<PacketInListener> registerPacketInListener(PacketInListener listener) {
+        return registerPacketInListener(listener, PacketInFilter.ANY);
+    }
+
+    /**
+     * The listener only gets the packets the filter matches.
+     */
+    public ListenerRegistration<PacketInListener> registerPacketInListener(PacketInListener listener,
+                                                                           PacketInFilter filter) {
+        Subscription subscription = new Subscription(listener, filter);
+        synchronized (this) {
+            subscriptions.add(subscription);
+            table = new FilterTable(subscriptions);
+        }
+        LOG.info("Packet in listener registered, listener = {}, filter = {}.", listener, filter);
+        return new AbstractListenerRegistration<PacketInListener>(listener) {
+            @Override
+            protected void removeRegistration() {
+                synchronized (PacketListenerRegistry.this) {
+                    subscriptions.remove(subscription);
+                    table = new FilterTable(subscriptions);
+                }
+                LOG.info("Packet in listener unregistered, listener = {}.", getInstance());
+            }
+        };
+    }
+
+    public boolean hasPacketInListeners() {
+        return !table.isEmpty();
+    }
+
+    /**
+     * A listener that throws doesn't keep the others from the event.
+     */
+    public void publish(PacketInEvent event) {
+        FilterTable current = table;
+        Group nodeGroup = current.byNode.get(event.getNodeId());
+        if (nodeGroup != null) {
+            nodeGroup.publish(event);
+        }
+        current.anyNode.publish(event);
+    }
+
+    public boolean isNotificationEnabled() {
+        return notificationEnabled;
+    }
+
+    /**
+     * Whether packet-ins are also published as packet-received notifications.
+     */
+    public void setNotificationEnabled(boolean notificationEnabled) {
+        this.notificationEnabled = notificationEnabled;
+    }
+
+    private static final class Subscription {
+        private final PacketInListener listener;
+        private final PacketInFilter filter;
+        /* EtherTypes at the usual offset are matched by the table */
+        private final boolean indexedEtherType;
+
+        private Subscription(PacketInListener listener, PacketInFilter filter) {
+            this.listener = listener;
+            this.filter = filter;
+            this.indexedEtherType = filter.getEtherType() >= 0
+                    && filter.getEtherTypeOffset() == PacketInFilter.ETHER_TYPE_OFFSET;
+        }
+
+        private void deliver(PacketInEvent event) {
+            if ((!indexedEtherType && !filter.matchesEtherType(event)) || !filter.matchesMetadata(event)) {
+                return;
+            }
+            try {
+                listener.onPacketIn(event);
+            } catch (RuntimeException e) {
+                LOG.info("Packet in listener failed, listener = {}, reason = {}.", listener, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Immutable snapshot of the subscriptions, by node id.
+     */
+    private static final class FilterTable {
+        private final Map<String, Group> byNode = new HashMap<>();
+        private final Group anyNode;
+
+        private FilterTable(List<Subscription> subscriptions) {
+            Map<String, List<Subscription>> nodeSubscriptions = new HashMap<>();
+            List<Subscription> anyNodeSubscriptions = new ArrayList<>();
+            for (Subscription subscription : subscriptions) {
+                String nodeId = subscription.filter.getNodeId();
+                if (nodeId == null) {
+                    anyNodeSubscriptions.add(subscription);
+                } else {
+                    nodeSubscriptions.computeIfAbsent(nodeId, k -> new ArrayList<>()).add(subscription);
+                }
+            }
+            nodeSubscriptions.forEach((nodeId, list) -> byNode.put(nodeId, new Group(list)));
+            this.anyNode = new Group(anyNodeSubscriptions);
+        }
+
+        private boolean isEmpty() {
+            return byNode.isEmpty() && anyNode.isEmpty();
+        }
+    }
+
+    /**
+     * Subscriptions of one node, or of any node, by EtherType.
+     */
+    private static final class Group {
+        private final Map<Integer, Subscription[]> byEtherType = new HashMap<>();
+        private final Subscription[] anyEtherType;
+
+        private Group(List<Subscription> subscriptions) {
+            Map<Integer, List<Subscription>> etherTypeSubscriptions = new HashMap<>();
+            List<Subscription> others = new ArrayList<>();
+            for (Subscription subscription : subscriptions) {
+                if (subscription.indexedEtherType) {
+                    etherTypeSubscriptions.computeIfAbsent(subscription.filter.getEtherType(),
+                            k -> new ArrayList<>()).add(subscription);
+                } else {
+                    others.add(subscription);
+                }
+            }
+            etherTypeSubscriptions.forEach((etherType, list) ->
+                    byEtherType.put(etherType, list.toArray(new Subscription[0])));
+            this.anyEtherType = others.toArray(new Subscription[0]);
+        }
+
+        private boolean isEmpty() {
+            return byEtherType.isEmpty() && anyEtherType.length == 0;
+        }
+
+        private void publish(PacketInEvent event) {
+            if (!byEtherType.isEmpty()) {
+                Subscription[] matching = byEtherType.get(event.getEtherType(PacketInFilter.ETHER_TYPE_OFFSET));
+                if (matching != null) {
+                    for (Subscription subscription : matching) {
+                        subscription.deliver(event);
+                    }
+                }
+            }
+            for (Subscription subscription : anyEtherType) {
+                subscription.deliver(event);
+            }
+        }
+    }
+}